@@ -0,0 +1,8 @@
+#!/bin/sh
+# Builds the client and these benchmarks, then runs them, leaving the results in
+# target/results.json. Arguments go to JMH, such as a benchmark name or -p fileSize=65536.
+set -e
+cd "$(dirname "$0")"
+mvn -B -q -f ../pom.xml install -DskipTests
+mvn -B -q package
+java -jar target/benchmarks.jar -rf json -rff target/results.json "$@"
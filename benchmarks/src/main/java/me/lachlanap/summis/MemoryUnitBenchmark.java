@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@link MemoryUnit#plus} and {@link MemoryUnit#toString} with several threads at them at once,
+ * as progress reporting had them, against the {@link StripedCounter} that replaced the running
+ * totals. Change the thread count with {@code -t}.
+ *
+ * @author Lachlan Phillips
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MemoryUnitBenchmark {
+
+    private static final MemoryUnit STEP = new MemoryUnit(MemoryUnit.Prefix.Kilo, 2);
+
+    private MemoryUnit runningTotal = MemoryUnit.ZERO;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        final StripedCounter counter = new StripedCounter();
+    }
+
+    @Benchmark
+    public MemoryUnit plus() {
+        runningTotal = runningTotal.plus(STEP);
+        return runningTotal;
+    }
+
+    @Benchmark
+    public String plusAndToString() {
+        runningTotal = runningTotal.plus(STEP);
+        return runningTotal.toString();
+    }
+
+    @Benchmark
+    public void stripedCounterAdd(Shared shared) {
+        shared.counter.add(STEP.inBytes());
+    }
+}
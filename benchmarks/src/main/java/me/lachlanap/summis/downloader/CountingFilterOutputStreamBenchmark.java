@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * How fast bytes get through {@link CountingFilterOutputStream} for different sized writes. A
+ * write size of 1 goes through {@code write(int)}. The plain {@link FilterOutputStream} shows
+ * what its per-byte {@code write(byte[], int, int)} would cost were it not overridden.
+ * <p>
+ * Each operation writes a megabyte, so operations per second are megabytes per second.
+ *
+ * @author Lachlan Phillips
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CountingFilterOutputStreamBenchmark {
+
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private static final OutputStream DISCARD = new OutputStream() {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"1", "512", "8192", "65536"})
+    public int writeSize;
+
+    private byte[] block;
+    private TallyListener listener;
+
+    @Setup
+    public void setUp() {
+        block = new byte[writeSize];
+        new Random(1).nextBytes(block);
+        listener = new TallyListener();
+    }
+
+    @Benchmark
+    public long counting() throws IOException {
+        try (OutputStream os = new CountingFilterOutputStream(DISCARD, listener)) {
+            writeMegabyte(os);
+        }
+        return listener.getDownloaded();
+    }
+
+    @Benchmark
+    public void plainFilterOutputStream() throws IOException {
+        try (OutputStream os = new FilterOutputStream(DISCARD)) {
+            writeMegabyte(os);
+        }
+    }
+
+    private void writeMegabyte(OutputStream os) throws IOException {
+        if (writeSize == 1) {
+            for (int i = 0; i < MEGABYTE; i++)
+                os.write(block[0]);
+        } else {
+            for (int written = 0; written < MEGABYTE; written += writeSize)
+                os.write(block, 0, writeSize);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import me.lachlanap.config.Configuration;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.FileSet;
+import me.lachlanap.summis.Version;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.MirrorSet;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A whole fresh install through {@link Downloader#go()}, from fetching each file through to
+ * committing the new generation, with the files served straight off local disk so the network
+ * is left out of it. Settings come from the client's own core.properties.
+ *
+ * @author Lachlan Phillips
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DownloaderBenchmark {
+
+    private static final String ADDRESS = "http://bench.invalid/";
+
+    @Param({"16", "256"})
+    public int fileCount;
+
+    @Param({"65536", "1048576"})
+    public int fileSize;
+
+    private Path root;
+    private Downloader downloader;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("summis-bench");
+        final Path source = Files.createDirectory(root.resolve("source"));
+
+        List<FileInfo> files = new ArrayList<>();
+        Random random = new Random(1);
+        byte[] bytes = new byte[fileSize];
+        for (int i = 0; i < fileCount; i++) {
+            String name = "file" + i + ".bin";
+            random.nextBytes(bytes);
+            try (OutputStream os = Files.newOutputStream(source.resolve(name))) {
+                os.write(bytes);
+            }
+
+            Digests digests = Digests.of(source.resolve(name));
+            files.add(new FileInfo(name, new MemoryUnit(fileSize), ADDRESS + name,
+                                   digests.getMD5Digest(), digests.getSHA1Digest()));
+        }
+        FileSet fileSet = new FileSet(files);
+        UpdateInformation update = new UpdateInformation(Version.parse("2.0.0"), Version.ZERO, fileSet, fileSet);
+
+        MockHttpTransport transport = new MockHttpTransport() {
+
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                Path file = source.resolve(url.substring(ADDRESS.length()));
+                return new MockLowLevelHttpRequest(url).setResponse(
+                        new MockLowLevelHttpResponse()
+                        .setContentLength(Files.size(file))
+                        .setContent(Files.newInputStream(file)));
+            }
+        };
+
+        Configuration config = Configuration.builder().loadBase("core.properties").build();
+        Path installRoot = Files.createDirectory(root.resolve("install"));
+        // A size limit of 0 turns the content store off, so every install really fetches its files
+        ContentStore contentStore = new ContentStore(root.resolve("cache"), new MemoryUnit(0));
+        downloader = new Downloader(config, installRoot, update, transport,
+                                    new MirrorSet(ADDRESS, Collections.<String>emptyList()), contentStore,
+                                    new BandwidthLimiter(MemoryUnit.ZERO), new TallyListener(), new Metrics(), true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public List<FileOutcome> freshInstall() throws InterruptedException {
+        // Every run stages a new generation; older ones are pruned as it is made current
+        return downloader.go();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import me.lachlanap.summis.MemoryUnit;
+
+/**
+ * Adds up what it hears, as the UI's listener does, without anything slower behind it.
+ *
+ * @author Lachlan Phillips
+ */
+public class TallyListener implements DownloadListener {
+
+    private long downloaded;
+    private long received;
+    private int completed;
+
+    @Override
+    public void startingDownload(int numberOfFiles, MemoryUnit totalSize) {
+    }
+
+    @Override
+    public synchronized void downloadedSome(MemoryUnit amount) {
+        downloaded += amount.inBytes();
+    }
+
+    @Override
+    public synchronized void receivedSome(MemoryUnit amount) {
+        received += amount.inBytes();
+    }
+
+    @Override
+    public synchronized void completedADownload() {
+        completed++;
+    }
+
+    @Override
+    public void startingVerify(int numberOfFiles) {
+    }
+
+    @Override
+    public synchronized void completedAVerify() {
+        completed++;
+    }
+
+    public synchronized long getDownloaded() {
+        return downloaded;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+}
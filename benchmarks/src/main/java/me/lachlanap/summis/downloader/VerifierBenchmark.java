@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Hashing an installed file, as {@link FileVerifier} does when a file has to be checked, for a
+ * range of file sizes. {@link FileVerifier} reads in buffers of its own size, so the effect of
+ * buffer size is measured on plain stream hashing through {@link Digests} alongside it.
+ *
+ * @author Lachlan Phillips
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VerifierBenchmark {
+
+    private static final String NAME = "file.bin";
+
+    @Param({"65536", "4194304", "67108864"})
+    public int fileSize;
+
+    private Path root;
+    private FileInfo info;
+    private ExecutorService helper;
+    private FileVerifier verifier;
+
+    @State(Scope.Thread)
+    public static class Buffer {
+
+        @Param({"1024", "8192", "65536", "1048576"})
+        public int bufferSize;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("summis-bench");
+        Path file = root.resolve(NAME);
+        byte[] chunk = new byte[64 * 1024];
+        Random random = new Random(1);
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (int written = 0; written < fileSize; written += chunk.length) {
+                random.nextBytes(chunk);
+                os.write(chunk, 0, Math.min(chunk.length, fileSize - written));
+            }
+        }
+
+        Digests digests = Digests.of(file);
+        info = new FileInfo(NAME, new MemoryUnit(fileSize), "", digests.getMD5Digest(), digests.getSHA1Digest());
+        helper = Executors.newCachedThreadPool();
+        verifier = new FileVerifier(helper);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        helper.shutdown();
+        Files.delete(root.resolve(NAME));
+        Files.delete(root);
+    }
+
+    @Benchmark
+    public boolean fileVerifier() throws Exception {
+        return verifier.matches(root.resolve(NAME), info);
+    }
+
+    @Benchmark
+    public String streamed(Buffer buffer) throws IOException {
+        Digests digests = new Digests();
+        byte[] bytes = new byte[buffer.bufferSize];
+        try (InputStream is = Files.newInputStream(root.resolve(NAME))) {
+            int read;
+            while ((read = is.read(bytes)) != -1)
+                digests.update(bytes, 0, read);
+        }
+        return digests.getSHA1Digest();
+    }
+}
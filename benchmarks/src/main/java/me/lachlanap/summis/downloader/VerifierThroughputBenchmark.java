@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Bytes hashed per second by {@link FileVerifier}, against the chained
+ * {@link DigestInputStream}s with a 1KB buffer that verification used before it. Each is run on
+ * one thread, and on as many threads as there are cores; the {@code bytes} counter of the one
+ * thread runs is the rate of a single core, and the {@code bytes} of the others divided by the
+ * core count shows how well that holds up with every core hashing at once.
+ *
+ * @author Lachlan Phillips
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VerifierThroughputBenchmark {
+
+    @Param({"4194304", "67108864"})
+    public int fileSize;
+
+    private Path root;
+    private Path file;
+    private ExecutorService helper;
+    private FileVerifier verifier;
+
+    /**
+     * Reported by JMH as a rate, so in bytes per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Hashed {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("summis-bench");
+        file = root.resolve("file.bin");
+        byte[] chunk = new byte[64 * 1024];
+        Random random = new Random(1);
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (int written = 0; written < fileSize; written += chunk.length) {
+                random.nextBytes(chunk);
+                os.write(chunk, 0, Math.min(chunk.length, fileSize - written));
+            }
+        }
+
+        helper = Executors.newCachedThreadPool();
+        verifier = new FileVerifier(helper);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        helper.shutdown();
+        Files.delete(file);
+        Files.delete(root);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[][] baselineOneThread(Hashed hashed) throws IOException, NoSuchAlgorithmException {
+        return baseline(hashed);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[][] baselineAllThreads(Hashed hashed) throws IOException, NoSuchAlgorithmException {
+        return baseline(hashed);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[][] fileVerifierOneThread(Hashed hashed) throws IOException, InterruptedException {
+        return fileVerifier(hashed);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[][] fileVerifierAllThreads(Hashed hashed) throws IOException, InterruptedException {
+        return fileVerifier(hashed);
+    }
+
+    /**
+     * How files were verified before {@link FileVerifier}.
+     */
+    private byte[][] baseline(Hashed hashed) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        byte[] buffer = new byte[1024];
+        try (InputStream is = Files.newInputStream(file)) {
+            DigestInputStream dis = new DigestInputStream(new DigestInputStream(is, md5), sha1);
+            while (dis.read(buffer) != -1) {
+                ;
+            }
+        }
+        hashed.bytes += fileSize;
+        return new byte[][]{md5.digest(), sha1.digest()};
+    }
+
+    private byte[][] fileVerifier(Hashed hashed) throws IOException, InterruptedException {
+        byte[][] digests = verifier.digest(file);
+        hashed.bytes += fileSize;
+        return digests;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The installed binaries, kept as numbered generation directories with a pointer file naming the
+ * current and previous ones. An update is staged into a new generation and only becomes current
+ * when the pointer is swapped, so a failed update never leaves a mix of old and new files, and
+ * going back to the previous generation is just another swap. Each generation can record the
+ * version it holds, which becomes the installed version whenever it is made current.
+ *
+ * @author Lachlan Phillips
+ */
+public class Generations {
+
+    private static final String GENERATIONS_DIRECTORY = "generations";
+    private static final String POINTER_FILE = "generation";
+    // Names a complete generation to make current the next time the app is started
+    private static final String PENDING_FILE = "generation.pending";
+    // Where binaries lived before there were generations
+    private static final String LEGACY_DIRECTORY = "bin";
+    // What VersionRWer reads, in the install root and in each generation
+    private static final String VERSION_FILE = "version";
+
+    private final Path installRoot;
+    private final Path generationsRoot;
+    private final Path pointerFile;
+
+    private Path current;
+    private Path previous;
+
+    public Generations(Path installRoot) {
+        this.installRoot = installRoot;
+        this.generationsRoot = installRoot.resolve(GENERATIONS_DIRECTORY);
+        this.pointerFile = installRoot.resolve(POINTER_FILE);
+
+        load();
+    }
+
+    private void load() {
+        current = null;
+        previous = null;
+
+        if (Files.exists(pointerFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(pointerFile, StandardCharsets.UTF_8)) {
+                current = resolve(reader.readLine());
+                previous = resolve(reader.readLine());
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+
+        if (current == null && Files.isDirectory(installRoot.resolve(LEGACY_DIRECTORY)))
+            current = installRoot.resolve(LEGACY_DIRECTORY);
+    }
+
+    private Path resolve(String name) {
+        if (name == null || name.isEmpty())
+            return null;
+
+        Path generation = installRoot.resolve(name);
+        return Files.isDirectory(generation) ? generation : null;
+    }
+
+    /**
+     * @return the directory holding the binaries to launch, or null if nothing is installed
+     */
+    public synchronized Path getCurrent() {
+        return current;
+    }
+
+    public synchronized Path getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return a new, empty generation directory to install an update into
+     */
+    public synchronized Path stage() {
+        try {
+            Files.createDirectories(generationsRoot);
+
+            int next = 0;
+            try (DirectoryStream<Path> existing = Files.newDirectoryStream(generationsRoot)) {
+                for (Path generation : existing) {
+                    try {
+                        next = Math.max(next, Integer.parseInt(generation.getFileName().toString()) + 1);
+                    } catch (NumberFormatException nfe) {
+                        // Not a generation
+                    }
+                }
+            }
+
+            Path staged = generationsRoot.resolve(Integer.toString(next));
+            Files.createDirectory(staged);
+            return staged;
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to create a generation directory", ioe);
+        }
+    }
+
+    /**
+     * Makes a staged generation current, keeping the old current one as previous and deleting
+     * anything older.
+     */
+    public synchronized void activate(Path staged) {
+        writePointer(staged, current);
+        previous = current;
+        current = staged;
+        syncVersion();
+
+        prune();
+    }
+
+    /**
+     * Swaps the current and previous generations, along with the installed version.
+     *
+     * @return false if there is no previous generation to go back to
+     */
+    public synchronized boolean rollback() {
+        if (previous == null)
+            return false;
+
+        writePointer(previous, current);
+        Path rolledBack = current;
+        current = previous;
+        previous = rolledBack;
+        syncVersion();
+        return true;
+    }
+
+    /**
+     * Records that {@code generation} holds {@code version}. If it is current, that is now the
+     * installed version too.
+     */
+    public synchronized void setVersion(Path generation, Version version) {
+        new VersionRWer(generation).write(version);
+        if (generation.equals(current))
+            syncVersion();
+    }
+
+    /**
+     * Copies the current generation's version, if it recorded one, to where {@link VersionRWer}
+     * reads the installed version from.
+     */
+    private void syncVersion() {
+        Path version = current.resolve(VERSION_FILE);
+        if (!Files.exists(version))
+            return;
+
+        Path tmp = installRoot.resolve(VERSION_FILE + ".tmp");
+        try {
+            Files.copy(version, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, installRoot.resolve(VERSION_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to record the installed version", ioe);
+        }
+    }
+
+    /**
+     * Marks a staged generation to be made current by {@link #activatePending()} on the next
+     * start, for when the current one is in use. Any generation pending before is discarded.
+     */
+    public synchronized void activateOnNextStart(Path staged) {
+        Path pending = readPending();
+        if (pending != null && !pending.equals(staged))
+            discard(pending);
+
+        Path tmp = installRoot.resolve(PENDING_FILE + ".tmp");
+        try {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                writer.println(installRoot.relativize(staged).toString().replace('\\', '/'));
+            }
+            Files.move(tmp, installRoot.resolve(PENDING_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to record the generation for next start", ioe);
+        }
+    }
+
+    /**
+     * Makes the generation marked by {@link #activateOnNextStart(Path)} current, if there is one,
+     * and its version the installed one.
+     *
+     * @return whether a generation was activated
+     */
+    public synchronized boolean activatePending() {
+        Path pending = readPending();
+        try {
+            Files.deleteIfExists(installRoot.resolve(PENDING_FILE));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to clear the generation for next start", ioe);
+        }
+
+        if (pending == null || pending.equals(current))
+            return false;
+        activate(pending);
+        return true;
+    }
+
+    /**
+     * @return the generation {@link #activatePending()} would make current, or null if there is
+     *         none
+     */
+    public synchronized Path getPending() {
+        return readPending();
+    }
+
+    private Path readPending() {
+        Path pendingFile = installRoot.resolve(PENDING_FILE);
+        if (!Files.exists(pendingFile))
+            return null;
+
+        try (BufferedReader reader = Files.newBufferedReader(pendingFile, StandardCharsets.UTF_8)) {
+            return resolve(reader.readLine());
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Deletes a staged generation that will never be activated.
+     */
+    public synchronized void discard(Path staged) {
+        if (!staged.equals(current) && !staged.equals(previous))
+            delete(staged);
+    }
+
+    private void writePointer(Path newCurrent, Path newPrevious) {
+        Path tmp = installRoot.resolve(POINTER_FILE + ".tmp");
+        try {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                writer.println(installRoot.relativize(newCurrent).toString().replace('\\', '/'));
+                if (newPrevious != null)
+                    writer.println(installRoot.relativize(newPrevious).toString().replace('\\', '/'));
+            }
+            Files.move(tmp, pointerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to switch generations", ioe);
+        }
+    }
+
+    private void prune() {
+        Path legacy = installRoot.resolve(LEGACY_DIRECTORY);
+        if (!legacy.equals(current) && !legacy.equals(previous))
+            delete(legacy);
+
+        if (!Files.isDirectory(generationsRoot))
+            return;
+        try (DirectoryStream<Path> existing = Files.newDirectoryStream(generationsRoot)) {
+            for (Path generation : existing)
+                if (!generation.equals(current) && !generation.equals(previous))
+                    delete(generation);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (!Files.exists(directory))
+            return;
+
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return super.visitFile(file, attrs);
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return super.postVisitDirectory(dir, exc);
+                }
+            });
+        } catch (IOException ioe) {
+            // Probably still in use by a running copy of the app; try again next time
+            ioe.printStackTrace();
+        }
+    }
+}
@@ -23,15 +23,22 @@
  */
 package me.lachlanap.summis;
 
+import com.google.api.client.http.HttpTransport;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import me.lachlanap.config.Configuration;
 import me.lachlanap.summis.ResponseSource.Choice;
+import me.lachlanap.summis.downloader.BandwidthLimiter;
+import me.lachlanap.summis.downloader.ContentStore;
 import me.lachlanap.summis.downloader.DownloadListener;
 import me.lachlanap.summis.downloader.Downloader;
+import me.lachlanap.summis.downloader.UpdateFailedException;
 import me.lachlanap.summis.launcher.Launcher;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.HttpTransports;
+import me.lachlanap.summis.transport.MirrorSet;
 import me.lachlanap.summis.ui.MainUI;
 import me.lachlanap.summis.update.UpdateInformationGrabber;
 
@@ -41,6 +48,8 @@ import me.lachlanap.summis.update.UpdateInformationGrabber;
  */
 public class Main {
 
+    private static final String METRICS_FILE = "metrics.json";
+
     public static void main(String[] args) throws InterruptedException {
         Configuration config = Configuration.builder()
                 .loadBase("core.properties").build();
@@ -55,47 +64,112 @@ public class Main {
                             StatusListener statusListener,
                             ResponseSource responseSource) throws InterruptedException {
         Path installRoot = setupInstallRoot(config);
+        // An update installed in the background last time takes over now, before anything is launched
+        if (new Generations(installRoot).activatePending())
+            System.out.println("Switched to the update installed last time");
+
+        // Visible over JMX while this run goes, and left in the install root after it
+        Metrics metrics = new Metrics();
+        metrics.register();
+
+        HttpTransport transport = setupTransport(config);
+        ContentStore contentStore = setupContentStore(config);
+        // One limit shared by every download this run, which can be changed over JMX as they go
+        BandwidthLimiter bandwidthLimiter = setupBandwidthLimiter(config);
+        bandwidthLimiter.register();
+        MirrorSet mirrors = setupMirrors(config);
+        mirrors.probe(transport, UpdateInformationGrabber.manifestPath(config.getString("server.project")));
 
-        UpdateInformationGrabber uig = new UpdateInformationGrabber(config);
+        UpdateInformationGrabber uig = new UpdateInformationGrabber(config, transport, metrics);
 
         statusListener.checking();
         uig.begin();
 
         VersionRWer versionRWer = new VersionRWer(installRoot);
 
+        boolean launched = false;
         try {
             UpdateInformation versionInfo = uig.get(versionRWer.getVersionElse(Version.ZERO));
             statusListener.foundLatest(versionInfo.getLatest());
 
-            updateIfNeedBe(installRoot,
-                           versionRWer,
-                           statusListener, responseSource,
-                           versionInfo);
+            if (updatesForNextStart(config)
+                && versionRWer.getPresence() == VersionRWer.PresenceStatus.Present
+                && versionInfo.isNewUpdate()) {
+                statusListener.launching();
+                launch(config, installRoot, metrics);
+                launched = true;
+
+                DownloadListener downloadListener = statusListener.downloading();
+                statusListener.downloadingInBackground();
+                Downloader downloader = new Downloader(config, installRoot, versionInfo, transport, mirrors, contentStore, bandwidthLimiter, downloadListener, metrics, false);
+                // The new version is only recorded when its generation is made current next start
+                installForNextStart(downloader);
+            } else {
+                Downloader downloader = updateIfNeedBe(config, installRoot,
+                                                       transport, mirrors, contentStore, bandwidthLimiter,
+                                                       versionRWer,
+                                                       statusListener, responseSource,
+                                                       versionInfo, metrics);
+
+                // Otherwise the downloader records the version along with the generation holding it
+                if (downloader == null)
+                    versionRWer.write(versionInfo.getLatest());
 
-            versionRWer.write(versionInfo.getLatest());
+                statusListener.launching();
+                launch(config, installRoot, metrics);
+                launched = true;
 
-            statusListener.launching();
-            launch(config, installRoot);
+                if (downloader != null && downloader.hasDeferred()) {
+                    statusListener.downloadingInBackground();
+                    finishDeferred(downloader);
+                }
+            }
         } catch (RuntimeException re) {
             statusListener.errorChecking(re);
 
-            ResponseSource.Choice choice = responseSource.launchOrQuit();
-            if (choice == Choice.Launch) {
-                statusListener.launching();
-                launch(config, installRoot);
+            // Once the app is running, a failed background download must not launch it again
+            if (!launched) {
+                ResponseSource.Choice choice = responseSource.launchOrQuit();
+                if (choice == Choice.Launch) {
+                    statusListener.launching();
+                    launch(config, installRoot, metrics);
+                }
             }
         } finally {
+            try {
+                transport.shutdown();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+            System.out.println("Content store: " + contentStore.getHits() + " hits, "
+                               + contentStore.getMisses() + " misses");
+            long poolHits = HttpTransports.getPoolHits(transport);
+            long poolMisses = HttpTransports.getPoolMisses(transport);
+            System.out.println("Connection pool: " + poolHits + " hits, " + poolMisses + " misses");
+
+            metrics.counter("content-store.hits").add(contentStore.getHits());
+            metrics.counter("content-store.misses").add(contentStore.getMisses());
+            metrics.counter("transport.pool-hits").add(poolHits);
+            metrics.counter("transport.pool-misses").add(poolMisses);
+            try {
+                metrics.writeTo(installRoot.resolve(METRICS_FILE));
+            } catch (RuntimeException re) {
+                re.printStackTrace();
+            }
+            metrics.unregister();
+            bandwidthLimiter.unregister();
+
             statusListener.finished();
         }
     }
 
-    private static Path setupInstallRoot(Configuration config) {
-        String installDirectoryTemplate = config.getString("install.path");
+    private static MirrorSet setupMirrors(Configuration config) {
+        return new MirrorSet(config.getString("server.address"),
+                             MirrorSet.parseAddresses(config.getString("server.mirrors")));
+    }
 
-        String installDirectory = installDirectoryTemplate
-                .replace("%userhome", System.getProperty("user.home"))
-                .replace("%cwd", System.getProperty("user.dir"));
-        Path installRoot = Paths.get(installDirectory);
+    private static Path setupInstallRoot(Configuration config) {
+        Path installRoot = resolvePath(config.getString("install.path"));
 
         if (Files.notExists(installRoot)) {
             try {
@@ -108,23 +182,92 @@ public class Main {
         return installRoot;
     }
 
-    private static void updateIfNeedBe(Path installRoot,
-                                       VersionRWer versionReader,
-                                       StatusListener statusListener,
-                                       ResponseSource responseSource,
-                                       UpdateInformation versionInfo) throws InterruptedException {
+    private static ContentStore setupContentStore(Configuration config) {
+        Path cacheRoot = resolvePath(config.getString("cache.path"));
+        MemoryUnit sizeLimit = MemoryUnit.parse(config.getString("cache.size-limit"));
+        return new ContentStore(cacheRoot, sizeLimit);
+    }
+
+    private static BandwidthLimiter setupBandwidthLimiter(Configuration config) {
+        return new BandwidthLimiter(MemoryUnit.parse(config.getString("download.bandwidth-limit")));
+    }
+
+    private static Path resolvePath(String template) {
+        String path = template
+                .replace("%userhome", System.getProperty("user.home"))
+                .replace("%cwd", System.getProperty("user.dir"));
+        return Paths.get(path);
+    }
+
+    private static HttpTransport setupTransport(Configuration config) {
+        int connectionsPerHost = Integer.parseInt(config.getString("transport.connections-per-host"));
+        int maxConnections = Integer.parseInt(config.getString("transport.max-connections"));
+        return HttpTransports.pooled(connectionsPerHost, maxConnections);
+    }
+
+    private static boolean updatesForNextStart(Configuration config) {
+        String mode = config.getString("update.mode").trim();
+        switch (mode) {
+            case "prompt":
+                return false;
+            case "next-start":
+                return true;
+            default:
+                throw new RuntimeException("Unknown update mode: " + mode);
+        }
+    }
+
+    /**
+     * If the update fails to install, the next start keeps the installed version and the update
+     * is tried again.
+     */
+    private static void installForNextStart(Downloader downloader) throws InterruptedException {
+        try {
+            downloader.goForNextStart();
+        } catch (UpdateFailedException ufe) {
+            System.out.println("The update could not be downloaded in the background: " + ufe.getMessage());
+        }
+    }
+
+    /**
+     * If some deferred files fail to install, the app runs without the new versions of them and
+     * the update is offered again next time.
+     */
+    private static void finishDeferred(Downloader downloader) throws InterruptedException {
+        try {
+            downloader.awaitDeferred();
+        } catch (UpdateFailedException ufe) {
+            System.out.println("Some files could not be downloaded in the background: " + ufe.getMessage());
+        }
+    }
+
+    /**
+     * @return the downloader that ran, which may still be fetching deferred files, or null if
+     *         nothing was downloaded
+     */
+    private static Downloader updateIfNeedBe(Configuration config,
+                                             Path installRoot,
+                                             HttpTransport transport,
+                                             MirrorSet mirrors,
+                                             ContentStore contentStore,
+                                             BandwidthLimiter bandwidthLimiter,
+                                             VersionRWer versionReader,
+                                             StatusListener statusListener,
+                                             ResponseSource responseSource,
+                                             UpdateInformation versionInfo,
+                                             Metrics metrics) throws InterruptedException {
         Downloader downloader = null;
         switch (versionReader.getPresence()) {
             case NotThere:
                 DownloadListener downloadListener = statusListener.downloading();
-                downloader = new Downloader(installRoot, versionInfo, downloadListener, true);
+                downloader = new Downloader(config, installRoot, versionInfo, transport, mirrors, contentStore, bandwidthLimiter, downloadListener, metrics, true);
                 break;
             case Corrupt:
                 ResponseSource.Choice choice = responseSource.updateOrLaunch();
 
                 if (choice == Choice.Update) {
                     downloadListener = statusListener.downloading();
-                    downloader = new Downloader(installRoot, versionInfo, downloadListener, true);
+                    downloader = new Downloader(config, installRoot, versionInfo, transport, mirrors, contentStore, bandwidthLimiter, downloadListener, metrics, true);
                 }
                 break;
             case Present:
@@ -132,7 +275,7 @@ public class Main {
                     choice = responseSource.updateOrLaunch();
                     if (choice == Choice.Update) {
                         downloadListener = statusListener.downloading();
-                        downloader = new Downloader(installRoot, versionInfo, downloadListener, false);
+                        downloader = new Downloader(config, installRoot, versionInfo, transport, mirrors, contentStore, bandwidthLimiter, downloadListener, metrics, false);
                     }
                 }
                 break;
@@ -140,10 +283,11 @@ public class Main {
 
         if (downloader != null)
             downloader.go();
+        return downloader;
     }
 
-    private static void launch(Configuration config, Path installRoot) {
-        Launcher launcher = new Launcher(config, installRoot);
+    private static void launch(Configuration config, Path installRoot, Metrics metrics) {
+        Launcher launcher = new Launcher(config, installRoot, metrics);
         launcher.launch();
     }
 }
@@ -111,6 +111,35 @@ public class MemoryUnit {
         return Prefix.Byte;
     }
 
+    /**
+     * Parses sizes like {@code 512}, {@code 64KB} or {@code 1.5 GB}; a number with no unit is in bytes.
+     */
+    public static MemoryUnit parse(String string) {
+        String trimmed = string.trim().replace(",", "");
+
+        int unitStart = trimmed.length();
+        while (unitStart > 0 && Character.isLetter(trimmed.charAt(unitStart - 1)))
+            unitStart--;
+
+        String number = trimmed.substring(0, unitStart).trim();
+        String abbreviation = trimmed.substring(unitStart);
+
+        Prefix prefix = null;
+        if (abbreviation.isEmpty())
+            prefix = Prefix.Byte;
+        for (Prefix candidate : Prefix.values())
+            if (candidate.abbreviation.equalsIgnoreCase(abbreviation))
+                prefix = candidate;
+        if (prefix == null || number.isEmpty())
+            throw new IllegalArgumentException("Cannot parse memory size: " + string);
+
+        try {
+            return new MemoryUnit(Math.round(Double.parseDouble(number) * prefix.scale));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Cannot parse memory size: " + string, nfe);
+        }
+    }
+
     @Override
     public String toString() {
         Prefix bestFitting = bestFittingPrefix();
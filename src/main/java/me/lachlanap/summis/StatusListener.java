@@ -41,6 +41,11 @@ public interface StatusListener {
 
     public void launching();
 
+    /**
+     * The app has launched, and the rest of the update is still downloading.
+     */
+    public void downloadingInBackground();
+
     public void finished();
 
 }
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A running total that many threads can add to at once without fighting over one cache line.
+ * Each thread adds to its own stripe; reading the total sums them, so reads are the slow side.
+ *
+ * @author Lachlan Phillips
+ */
+public class StripedCounter {
+
+    private static final int STRIPES = 16;
+    // Enough longs between stripes that no two share a 64 byte cache line
+    private static final int SPACING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * SPACING);
+
+    public void add(long amount) {
+        cells.addAndGet(stripe(), amount);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++)
+            sum += cells.get(i * SPACING);
+        return sum;
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        // Thread ids are handed out in order, so spreading them is enough
+        return (int) ((id ^ (id >>> 4)) & (STRIPES - 1)) * SPACING;
+    }
+}
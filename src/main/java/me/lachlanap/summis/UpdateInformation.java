@@ -24,7 +24,10 @@
 package me.lachlanap.summis;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -49,6 +52,13 @@ public class UpdateInformation {
         return latest;
     }
 
+    /**
+     * @return the version installed when this was fetched, or {@link Version#ZERO} if none was
+     */
+    public Version getCurrent() {
+        return current;
+    }
+
     public FileSet getDiffFileset() {
         return diffSet;
     }
@@ -61,25 +71,72 @@ public class UpdateInformation {
         return latest.isGreaterThan(current);
     }
 
+    /**
+     * When a file is needed: boot files have to be installed before the app can launch, while
+     * deferred ones (music, high resolution textures and the like) are fetched in the background
+     * once it has.
+     */
+    public enum Group {
+
+        BOOT, DEFERRED;
+
+        /**
+         * @return the group named in a manifest; no name, or one this client does not know,
+         *         means boot so that the file is never left out of a launch
+         */
+        public static Group parse(String name) {
+            if (name == null)
+                return BOOT;
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException iae) {
+                return BOOT;
+            }
+        }
+    }
+
+    /**
+     * The files making up a version, indexed by name so lookups stay cheap with tens of thousands
+     * of files.
+     */
     public static class FileSet {
 
         private final List<FileInfo> fileInfos;
         private final MemoryUnit totalSize;
+        private final Map<String, FileInfo> byName;
 
         public FileSet(List<FileInfo> fileInfos) {
             this.fileInfos = fileInfos;
+            this.byName = new HashMap<>(fileInfos.size() * 4 / 3 + 1);
 
-            MemoryUnit tmp = new MemoryUnit(0);
+            long total = 0;
             for (FileInfo info : fileInfos) {
-                tmp = tmp.plus(info.getSize());
+                total += info.getSize().inBytes();
+
+                if (!byName.containsKey(info.getName()))
+                    byName.put(info.getName(), info);
             }
-            totalSize = tmp;
+            totalSize = new MemoryUnit(total);
         }
 
         public List<FileInfo> getFiles() {
             return Collections.unmodifiableList(fileInfos);
         }
 
+        /**
+         * @return the file with this name, or null if there is none
+         */
+        public FileInfo getByName(String name) {
+            return byName.get(name);
+        }
+
+        /**
+         * @return whether this exact version of a file is in the set
+         */
+        public boolean contains(FileInfo info) {
+            return info.equals(byName.get(info.getName()));
+        }
+
         public int getFileCount() {
             return fileInfos.size();
         }
@@ -101,13 +158,29 @@ public class UpdateInformation {
         private final String url;
         private final String md5;
         private final String sha1;
+        private final List<Patch> patches;
+        private final List<Encoding> encodings;
+        private final ChunkList chunks;
+        private final JarEntryList jarEntries;
+        private final Group group;
 
         public FileInfo(String name, MemoryUnit size, String url, String md5, String sha1) {
+            this(name, size, url, md5, sha1, Group.BOOT,
+                 Collections.<Patch>emptyList(), Collections.<Encoding>emptyList(), null, null);
+        }
+
+        public FileInfo(String name, MemoryUnit size, String url, String md5, String sha1, Group group,
+                        List<Patch> patches, List<Encoding> encodings, ChunkList chunks, JarEntryList jarEntries) {
             this.name = name;
             this.size = size;
             this.url = url;
             this.md5 = md5;
             this.sha1 = sha1;
+            this.patches = patches;
+            this.encodings = encodings;
+            this.chunks = chunks;
+            this.jarEntries = jarEntries;
+            this.group = group;
         }
 
         @Override
@@ -158,9 +231,286 @@ public class UpdateInformation {
             return sha1;
         }
 
+        /**
+         * @return ways of building this file from an older one instead of downloading it whole
+         */
+        public List<Patch> getPatches() {
+            return Collections.unmodifiableList(patches);
+        }
+
+        /**
+         * @return compressed copies of this file that can be downloaded instead
+         */
+        public List<Encoding> getEncodings() {
+            return Collections.unmodifiableList(encodings);
+        }
+
+        /**
+         * @return the content-defined chunks this file is made of, or null if it is not chunked
+         */
+        public ChunkList getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return the entries of this jar, or null if it is not a jar that can be rebuilt entry by
+         *         entry
+         */
+        public JarEntryList getJarEntries() {
+            return jarEntries;
+        }
+
+        public Group getGroup() {
+            return group;
+        }
+
         @Override
         public String toString() {
             return "FileInfo{name=" + name + ", size=" + size + '}';
         }
     }
+
+    /**
+     * A binary patch that turns the file with a given SHA-1 into the one it is attached to.
+     */
+    public static class Patch {
+
+        private final String fromSHA1;
+        private final String format;
+        private final MemoryUnit size;
+        private final String url;
+
+        public Patch(String fromSHA1, String format, MemoryUnit size, String url) {
+            this.fromSHA1 = fromSHA1;
+            this.format = format;
+            this.size = size;
+            this.url = url;
+        }
+
+        public String getFromSHA1Digest() {
+            return fromSHA1;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public MemoryUnit getSize() {
+            return size;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String toString() {
+            return "Patch{from=" + fromSHA1 + ", format=" + format + ", size=" + size + '}';
+        }
+    }
+
+    /**
+     * A copy of a file compressed with some encoding, such as gzip.
+     */
+    public static class Encoding {
+
+        private final String encoding;
+        private final MemoryUnit size;
+        private final String url;
+
+        public Encoding(String encoding, MemoryUnit size, String url) {
+            this.encoding = encoding;
+            this.size = size;
+            this.url = url;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public MemoryUnit getSize() {
+            return size;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String toString() {
+            return "Encoding{encoding=" + encoding + ", size=" + size + '}';
+        }
+    }
+
+    /**
+     * A file split into content-defined chunks, so only the chunks not already held need
+     * downloading. The chunking parameters are needed to find the same chunks in local copies.
+     */
+    public static class ChunkList {
+
+        private static final String SHA1_PLACEHOLDER = "{sha1}";
+
+        private final String urlTemplate;
+        private final int minSize;
+        private final int averageSize;
+        private final int maxSize;
+        private final List<Chunk> chunks;
+
+        /**
+         * @param urlTemplate where to get chunks from, with {@code {sha1}} standing in for a
+         *                    chunk's SHA-1
+         */
+        public ChunkList(String urlTemplate, int minSize, int averageSize, int maxSize, List<Chunk> chunks) {
+            this.urlTemplate = urlTemplate;
+            this.minSize = minSize;
+            this.averageSize = averageSize;
+            this.maxSize = maxSize;
+            this.chunks = chunks;
+        }
+
+        public String getUrl(Chunk chunk) {
+            return urlTemplate.replace(SHA1_PLACEHOLDER, chunk.getSHA1Digest());
+        }
+
+        public int getMinSize() {
+            return minSize;
+        }
+
+        public int getAverageSize() {
+            return averageSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public List<Chunk> getChunks() {
+            return Collections.unmodifiableList(chunks);
+        }
+
+        @Override
+        public String toString() {
+            return "ChunkList{chunks=" + chunks.size() + ", min=" + minSize + ", avg=" + averageSize + ", max=" + maxSize + '}';
+        }
+    }
+
+    public static class Chunk {
+
+        private final String sha1;
+        private final int size;
+
+        public Chunk(String sha1, int size) {
+            this.sha1 = sha1;
+            this.size = size;
+        }
+
+        public String getSHA1Digest() {
+            return sha1;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{sha1=" + sha1 + ", size=" + size + '}';
+        }
+    }
+
+    /**
+     * The entries of a jar in the order they are laid out, so a jar that differs from the installed
+     * one in only a few entries can be rebuilt from it plus those entries.
+     */
+    public static class JarEntryList {
+
+        private static final String SHA1_PLACEHOLDER = "{sha1}";
+
+        private final String urlTemplate;
+        private final List<JarEntryInfo> entries;
+
+        /**
+         * @param urlTemplate where to get an entry's stored bytes from, with {@code {sha1}}
+         *                    standing in for their SHA-1
+         */
+        public JarEntryList(String urlTemplate, List<JarEntryInfo> entries) {
+            this.urlTemplate = urlTemplate;
+            this.entries = entries;
+        }
+
+        public String getUrl(JarEntryInfo entry) {
+            return urlTemplate.replace(SHA1_PLACEHOLDER, entry.getSHA1Digest());
+        }
+
+        public List<JarEntryInfo> getEntries() {
+            return Collections.unmodifiableList(entries);
+        }
+
+        @Override
+        public String toString() {
+            return "JarEntryList{entries=" + entries.size() + '}';
+        }
+    }
+
+    /**
+     * One entry of a jar, with everything its headers hold. The SHA-1 is of the entry's bytes as
+     * stored in the jar, which for deflated entries is the compressed form.
+     */
+    public static class JarEntryInfo {
+
+        private final String name;
+        private final int method;
+        private final long dosTime;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final String sha1;
+
+        public JarEntryInfo(String name, int method, long dosTime, long crc, long size, long compressedSize, String sha1) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.sha1 = sha1;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the modification time in the MS-DOS format zip headers use, date in the high
+         *         16 bits and time in the low
+         */
+        public long getDosTime() {
+            return dosTime;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public String getSHA1Digest() {
+            return sha1;
+        }
+
+        @Override
+        public String toString() {
+            return "JarEntryInfo{name=" + name + ", method=" + method + ", size=" + size + ", compressedSize=" + compressedSize + '}';
+        }
+    }
 }
@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.transport.Mirror;
+
+/**
+ * One attempt at fetching a file through the {@link AsyncHttpEngine}. Nothing waits on it: the
+ * engine's thread only copies the bytes off the socket, and they are digested and written to tmp
+ * in order on the hashing pool, which hands the file to the commit stage once the response ends.
+ * A redirect somewhere the engine cannot go carries on with a blocking download instead.
+ *
+ * @author Lachlan Phillips
+ */
+class AsyncDownload implements AsyncHttpEngine.Handler {
+
+    private static final int MAX_REDIRECTS = 5;
+    // Bytes waiting for the disk before the connection stops reading
+    private static final long MAX_QUEUED = 512 * 1024;
+
+    private static final Object END = new Object();
+
+    private final FileInfo info;
+    private final Mirror mirror;
+    private final AsyncHttpEngine engine;
+    private final PartialDownload partial;
+    private final TransferMeter downloadListener;
+    private final CommitStage commitStage;
+    private final TransferScheduler scheduler;
+    private final FileTransfer transfer;
+    private final Callable<Void> blockingFallback;
+
+    // Only touched on the engine's thread
+    private URL url;
+    private long offset;
+    private Digests prefix;
+    private int redirects;
+    private long sent;
+    private URL redirectTo;
+    private boolean restart;
+    private boolean accepting;
+
+    // Set on the engine's thread before the body starts, and read by the writer after
+    private Digests digests;
+    private String validator;
+    private boolean resuming;
+    private long responded;
+
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean wantsResume = new AtomicBoolean();
+    private volatile IOException writeFailure;
+
+    // Only touched by the writer
+    private OutputStream out;
+    private long bodyBytes;
+
+    public AsyncDownload(FileInfo info, Mirror mirror, URL url, AsyncHttpEngine engine, PartialDownload partial,
+                         TransferMeter downloadListener, CommitStage commitStage, TransferScheduler scheduler,
+                         FileTransfer transfer, Callable<Void> blockingFallback) {
+        this.info = info;
+        this.mirror = mirror;
+        this.url = url;
+        this.engine = engine;
+        this.partial = partial;
+        this.downloadListener = downloadListener;
+        this.commitStage = commitStage;
+        this.scheduler = scheduler;
+        this.transfer = transfer;
+        this.blockingFallback = blockingFallback;
+    }
+
+    /**
+     * Picks up from whatever an earlier attempt left in tmp and sends off the request.
+     */
+    public void start() throws IOException, InterruptedException {
+        offset = partial.resumableFrom();
+        if (offset == info.getSize().inBytes()) {
+            downloadListener.onDisk(offset);
+            commitStage.commitLater(info, partial, Digests.of(partial.getFile()), transfer);
+            return;
+        }
+
+        // Digested here rather than on the engine's thread, in case the server honours the range
+        prefix = offset > 0 ? Digests.ofPrefix(partial.getFile(), offset) : null;
+        send();
+    }
+
+    private void send() throws IOException {
+        redirectTo = null;
+        restart = false;
+        accepting = false;
+        sent = System.nanoTime();
+        engine.get(url, RangeRequests.headers(offset, -1, offset > 0 ? partial.getValidator() : null), this);
+    }
+
+    @Override
+    public void received(int statusCode, String reasonPhrase, Map<String, String> headers) throws IOException {
+        if (statusCode / 100 == 3 && headers.get("location") != null) {
+            if (++redirects > MAX_REDIRECTS)
+                throw new IOException("Too many redirects fetching " + info.getName());
+            redirectTo = new URL(url, headers.get("location"));
+            return;
+        }
+        if (statusCode == RangeRequests.HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+            restart = true;
+            return;
+        }
+        if (statusCode / 100 != 2)
+            throw new HttpResponseException.Builder(statusCode, reasonPhrase, new HttpHeaders())
+                    .setMessage(statusCode + " " + reasonPhrase + " fetching " + url).build();
+        responded = System.nanoTime();
+        mirror.responded((responded - sent) / 1000000);
+
+        // A server that ignores Range, or whose copy changed since (If-Range), sends it all again
+        resuming = offset > 0 && RangeRequests.isRangeFrom(statusCode, headers.get("content-range"), offset);
+        if (!resuming && statusCode == RangeRequests.HTTP_PARTIAL_CONTENT)
+            throw new IOException("Server sent the wrong range of " + info.getName());
+
+        if (resuming) {
+            digests = prefix;
+            downloadListener.onDisk(offset);
+        } else {
+            digests = new Digests();
+        }
+        validator = RangeRequests.validatorOf(headers.get("etag"), headers.get("last-modified"));
+        accepting = true;
+    }
+
+    @Override
+    public boolean content(byte[] b, int off, int len) throws IOException {
+        // The bodies of redirects and refusals are not the file
+        if (!accepting)
+            return true;
+        if (writeFailure != null)
+            throw writeFailure;
+
+        // Asked for before the bytes are queued, so the writer cannot drain them without seeing it
+        boolean keepReading = queued.addAndGet(len) <= MAX_QUEUED;
+        if (!keepReading)
+            wantsResume.set(true);
+        enqueue(Arrays.copyOfRange(b, off, off + len));
+        return keepReading;
+    }
+
+    @Override
+    public void completed() {
+        try {
+            if (redirectTo != null && !engine.supports(redirectTo)) {
+                // Such as to https, which the blocking transport can follow
+                transfer.continueWith(blockingFallback);
+                return;
+            }
+            if (redirectTo != null || restart) {
+                if (restart) {
+                    partial.discard();
+                    offset = 0;
+                    prefix = null;
+                }
+                if (redirectTo != null)
+                    url = redirectTo;
+                send();
+                return;
+            }
+
+            enqueue(END);
+        } catch (IOException ioe) {
+            failed(ioe);
+        }
+    }
+
+    @Override
+    public void failed(IOException cause) {
+        enqueue(new Failure(cause));
+    }
+
+    private void enqueue(Object item) {
+        pending.add(item);
+        if (draining.compareAndSet(false, true))
+            scheduler.submitHashing(new Writer(), info.getSize().inBytes());
+    }
+
+    /**
+     * Works through what the engine has queued, in order. Only one runs at a time for a download.
+     */
+    private class Writer implements Callable<Void> {
+
+        @Override
+        public Void call() {
+            while (true) {
+                Object item;
+                while ((item = pending.poll()) != null)
+                    handle(item);
+
+                draining.set(false);
+                // Something queued just before the flag was cleared would otherwise be stranded
+                if (pending.isEmpty() || !draining.compareAndSet(false, true))
+                    return null;
+            }
+        }
+
+        private void handle(Object item) {
+            if (item instanceof byte[]) {
+                byte[] chunk = (byte[]) item;
+                write(chunk);
+                if (queued.addAndGet(-chunk.length) <= MAX_QUEUED / 2 && wantsResume.compareAndSet(true, false))
+                    engine.resume(AsyncDownload.this);
+            } else if (item == END) {
+                finish();
+            } else {
+                abandon(((Failure) item).cause);
+            }
+        }
+
+        private void write(byte[] chunk) {
+            if (writeFailure != null)
+                return;
+
+            try {
+                if (out == null)
+                    out = new CountingFilterOutputStream(digests.digesting(partial.start(validator, resuming)), downloadListener);
+                out.write(chunk);
+                bodyBytes += chunk.length;
+            } catch (IOException ioe) {
+                // The engine's thread sees this the next time bytes come in, and gives up on the exchange
+                writeFailure = ioe;
+                close();
+            }
+        }
+
+        private void finish() {
+            if (writeFailure != null) {
+                abandon(writeFailure);
+                return;
+            }
+
+            try {
+                if (out == null)
+                    out = digests.digesting(partial.start(validator, resuming));
+                out.close();
+                out = null;
+            } catch (IOException ioe) {
+                abandon(ioe);
+                return;
+            }
+            mirror.transferred(bodyBytes, System.nanoTime() - responded);
+            downloadListener.finished();
+            try {
+                commitStage.commit(info, partial, digests, transfer);
+            } catch (InterruptedException ie) {
+                transfer.failed(ie);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void abandon(IOException cause) {
+            close();
+            // The next attempt goes to whichever mirror is doing best by then
+            mirror.failed();
+            transfer.failed(cause);
+        }
+
+        private void close() {
+            if (out == null)
+                return;
+            try {
+                out.close();
+            } catch (IOException ioe) {
+                // Already failing; the partial file is resumed from or discarded next attempt
+            }
+            out = null;
+        }
+    }
+
+    private static class Failure {
+
+        final IOException cause;
+
+        Failure(IOException cause) {
+            this.cause = cause;
+        }
+    }
+}
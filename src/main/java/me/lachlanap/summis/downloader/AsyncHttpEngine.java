@@ -0,0 +1,742 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small HTTP/1.1 client that runs every exchange on one thread over non-blocking sockets, so
+ * hundreds of files can be in flight without a thread each. Connections are kept alive and
+ * handed out per host up to a limit; requests beyond that wait for a connection to free up.
+ * <p>
+ * Only plain http GETs are handled. Handlers are called on the engine's thread, so they must not
+ * block for long; one that cannot keep up can have its connection stop reading until it
+ * {@linkplain #resume resumes} it.
+ *
+ * @author Lachlan Phillips
+ */
+class AsyncHttpEngine {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final long TIMEOUT_MILLIS = 20000;
+    private static final long IDLE_TIMEOUT_MILLIS = 15000;
+    private static final long TICK_MILLIS = 500;
+
+    /**
+     * Told how an exchange goes. It ends with exactly one of {@link #completed()} or
+     * {@link #failed(IOException)}.
+     */
+    interface Handler {
+
+        /**
+         * @param headers the response headers, with lower case names
+         * @throws IOException to abandon the exchange, which then fails with it
+         */
+        void received(int statusCode, String reasonPhrase, Map<String, String> headers) throws IOException;
+
+        /**
+         * @param b only valid for the duration of the call
+         * @return false to stop reading the response until {@link #resume} is called for this
+         *         handler
+         */
+        boolean content(byte[] b, int off, int len) throws IOException;
+
+        void completed();
+
+        void failed(IOException cause);
+    }
+
+    private final int connectionsPerHost;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final Selector selector;
+    private final Queue<Exchange> incoming;
+    private final Queue<Handler> resumed;
+    private final AtomicInteger inFlight;
+    private final Map<String, Host> hosts;
+    private final Set<Connection> connections;
+    private final Set<Host> needConnections;
+    private final ByteBuffer readBuffer;
+    private volatile boolean running;
+    private boolean paused;
+
+    public AsyncHttpEngine(int connectionsPerHost, BandwidthLimiter bandwidthLimiter) throws IOException {
+        if (connectionsPerHost <= 0)
+            throw new IllegalArgumentException("Need at least one connection per host, not " + connectionsPerHost);
+        this.connectionsPerHost = connectionsPerHost;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.selector = Selector.open();
+        this.incoming = new ConcurrentLinkedQueue<>();
+        this.resumed = new ConcurrentLinkedQueue<>();
+        this.inFlight = new AtomicInteger();
+        this.hosts = new HashMap<>();
+        this.connections = new HashSet<>();
+        this.needConnections = new LinkedHashSet<>();
+        this.readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.running = true;
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                loop();
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("Summis Client: Async HTTP Engine");
+        thread.start();
+    }
+
+    public boolean supports(URL url) {
+        return "http".equalsIgnoreCase(url.getProtocol());
+    }
+
+    /**
+     * Queues a GET; {@code handler} hears how it went on the engine's thread.
+     */
+    public void get(URL url, Map<String, String> headers, Handler handler) throws IOException {
+        if (!supports(url))
+            throw new IOException("Only plain http is supported, not " + url);
+        if (!running)
+            throw new IOException("Download engine has been shut down");
+
+        inFlight.incrementAndGet();
+        incoming.add(new Exchange(url, headers, handler));
+        selector.wakeup();
+    }
+
+    /**
+     * Starts reading again for a handler that asked to stop; it may be called from any thread.
+     */
+    public void resume(Handler handler) {
+        resumed.add(handler);
+        selector.wakeup();
+    }
+
+    /**
+     * @return exchanges queued or in progress
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncHttpEngine{inFlight=" + getInFlight() + '}';
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                Exchange exchange;
+                while ((exchange = incoming.poll()) != null)
+                    dispatch(exchange);
+                Handler handler;
+                while ((handler = resumed.poll()) != null)
+                    resume(handler, System.currentTimeMillis());
+
+                selector.select(throttle());
+
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key, (Connection) key.attachment());
+                }
+
+                expire();
+
+                List<Host> waiting = new ArrayList<>(needConnections);
+                needConnections.clear();
+                for (Host host : waiting)
+                    assign(host);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Download engine stopped: " + e);
+            e.printStackTrace();
+        } finally {
+            running = false;
+            closeEverything();
+        }
+    }
+
+    private void handle(SelectionKey key, Connection connection) {
+        try {
+            if (key.isValid() && key.isConnectable())
+                connection.finishConnect();
+            if (key.isValid() && key.isWritable())
+                connection.write();
+            if (key.isValid() && key.isReadable())
+                connection.read();
+        } catch (IOException ioe) {
+            connection.fail(ioe);
+        }
+    }
+
+    private void resume(Handler handler, long now) {
+        for (Connection connection : connections) {
+            if (connection.exchange != null && connection.exchange.handler == handler && connection.suspended) {
+                connection.suspended = false;
+                connection.lastActivity = now;
+                connection.updateInterest();
+            }
+        }
+    }
+
+    private void dispatch(Exchange exchange) {
+        String key = exchange.url.getHost().toLowerCase(Locale.ROOT) + ":" + portOf(exchange.url);
+        Host host = hosts.get(key);
+        if (host == null) {
+            host = new Host(exchange.url.getHost(), portOf(exchange.url));
+            hosts.put(key, host);
+        }
+
+        host.waiting.addLast(exchange);
+        assign(host);
+    }
+
+    private static int portOf(URL url) {
+        return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    }
+
+    /**
+     * Starts as many of a host's waiting exchanges as it has connections for.
+     */
+    private void assign(Host host) {
+        while (!host.waiting.isEmpty()) {
+            Connection connection = host.idle.pollFirst();
+            if (connection == null) {
+                if (host.open >= connectionsPerHost)
+                    return;
+
+                try {
+                    connection = open(host);
+                } catch (IOException ioe) {
+                    finish(host.waiting.pollFirst()).handler.failed(ioe);
+                    continue;
+                }
+            }
+
+            connection.begin(host.waiting.pollFirst());
+        }
+    }
+
+    private Connection open(Host host) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected;
+            try {
+                connected = channel.connect(new InetSocketAddress(host.name, host.port));
+            } catch (UnresolvedAddressException uae) {
+                throw new UnknownHostException(host.name);
+            }
+
+            Connection connection = new Connection(host, channel, connected);
+            connection.key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, connection);
+            host.open++;
+            connections.add(connection);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Exchange finish(Exchange exchange) {
+        inFlight.decrementAndGet();
+        return exchange;
+    }
+
+    /**
+     * Stops reading while the bandwidth limit is used up, so the bytes wait in the kernel rather
+     * than the engine's thread sleeping on the limiter.
+     *
+     * @return how long to wait for sockets before checking again
+     */
+    private long throttle() {
+        long wait = bandwidthLimiter.millisUntilAvailable();
+        if (wait > 0 && !paused) {
+            paused = true;
+            for (Connection connection : connections)
+                connection.updateInterest();
+        } else if (wait == 0 && paused) {
+            paused = false;
+            long now = System.currentTimeMillis();
+            for (Connection connection : connections) {
+                connection.lastActivity = now;
+                connection.updateInterest();
+            }
+        }
+        return wait > 0 ? Math.min(wait, TICK_MILLIS) : TICK_MILLIS;
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (connection.exchange == null) {
+                if (now - connection.lastActivity > IDLE_TIMEOUT_MILLIS)
+                    connection.close();
+            } else if (!paused && !connection.suspended && now - connection.lastActivity > TIMEOUT_MILLIS) {
+                connection.fail(new SocketTimeoutException("No response from " + connection.host.name
+                                                           + " in " + TIMEOUT_MILLIS + "ms"));
+            }
+        }
+    }
+
+    private void closeEverything() {
+        IOException cause = new IOException("Download engine has been shut down");
+        for (Connection connection : new ArrayList<>(connections)) {
+            Exchange exchange = connection.exchange;
+            connection.exchange = null;
+            connection.close();
+            if (exchange != null)
+                finish(exchange).handler.failed(cause);
+        }
+        for (Host host : hosts.values())
+            for (Exchange exchange : host.waiting)
+                finish(exchange).handler.failed(cause);
+        Exchange exchange;
+        while ((exchange = incoming.poll()) != null)
+            finish(exchange).handler.failed(cause);
+
+        try {
+            selector.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    private static class Exchange {
+
+        final URL url;
+        final Map<String, String> headers;
+        final Handler handler;
+        boolean retried;
+
+        Exchange(URL url, Map<String, String> headers, Handler handler) {
+            this.url = url;
+            this.headers = headers;
+            this.handler = handler;
+        }
+    }
+
+    private static class Host {
+
+        final String name;
+        final int port;
+        final Deque<Exchange> waiting;
+        final Deque<Connection> idle;
+        int open;
+
+        Host(String name, int port) {
+            this.name = name;
+            this.port = port;
+            this.waiting = new ArrayDeque<>();
+            this.idle = new ArrayDeque<>();
+        }
+    }
+
+    private enum State {
+
+        STATUS, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE
+    }
+
+    private class Connection {
+
+        final Host host;
+        final SocketChannel channel;
+        SelectionKey key;
+        boolean connected;
+        boolean reused;
+        long lastActivity;
+
+        Exchange exchange;
+        ByteBuffer request;
+        boolean receivedAny;
+        boolean suspended;
+        State state;
+        final StringBuilder line;
+        int headSize;
+        int statusCode;
+        String reasonPhrase;
+        Map<String, String> headers;
+        boolean keepAlive;
+        long remaining;
+
+        Connection(Host host, SocketChannel channel, boolean connected) {
+            this.host = host;
+            this.channel = channel;
+            this.connected = connected;
+            this.line = new StringBuilder();
+            this.lastActivity = System.currentTimeMillis();
+        }
+
+        void begin(Exchange next) {
+            exchange = next;
+            request = ByteBuffer.wrap(requestHead(next));
+            receivedAny = false;
+            suspended = false;
+            state = State.STATUS;
+            line.setLength(0);
+            headSize = 0;
+            headers = new HashMap<>();
+            lastActivity = System.currentTimeMillis();
+            updateInterest();
+        }
+
+        private byte[] requestHead(Exchange next) {
+            String path = next.url.getFile().isEmpty() ? "/" : next.url.getFile();
+
+            StringBuilder builder = new StringBuilder();
+            builder.append("GET ").append(path).append(" HTTP/1.1\r\n");
+            builder.append("Host: ").append(next.url.getHost());
+            if (next.url.getPort() != -1 && next.url.getPort() != next.url.getDefaultPort())
+                builder.append(':').append(next.url.getPort());
+            builder.append("\r\n");
+
+            for (Map.Entry<String, String> header : next.headers.entrySet())
+                builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+
+            builder.append("\r\n");
+            return builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        void updateInterest() {
+            if (!key.isValid())
+                return;
+
+            int interest;
+            if (!connected)
+                interest = SelectionKey.OP_CONNECT;
+            else if (exchange != null && request.hasRemaining())
+                interest = SelectionKey.OP_WRITE;
+            else if (exchange != null && (paused || suspended))
+                interest = 0;
+            else
+                interest = SelectionKey.OP_READ; // idle connections listen for the server closing them
+            key.interestOps(interest);
+        }
+
+        void finishConnect() throws IOException {
+            if (!channel.finishConnect())
+                return;
+
+            connected = true;
+            lastActivity = System.currentTimeMillis();
+            updateInterest();
+        }
+
+        void write() throws IOException {
+            if (exchange == null)
+                return;
+
+            if (channel.write(request) > 0)
+                lastActivity = System.currentTimeMillis();
+            if (!request.hasRemaining())
+                updateInterest();
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                endOfStream();
+                return;
+            }
+            if (read == 0)
+                return;
+
+            bandwidthLimiter.charge(read);
+            lastActivity = System.currentTimeMillis();
+            readBuffer.flip();
+
+            if (exchange == null) {
+                // Servers do not speak until spoken to
+                close();
+                return;
+            }
+
+            receivedAny = true;
+            Exchange current = exchange;
+            while (readBuffer.hasRemaining() && exchange == current)
+                parse(readBuffer);
+
+            // Anything after the end of a response cannot belong to anything
+            if (readBuffer.hasRemaining())
+                close();
+            else if (suspended && exchange == current)
+                updateInterest();
+        }
+
+        private void parse(ByteBuffer buffer) throws IOException {
+            switch (state) {
+                case STATUS:
+                    if (readLine(buffer))
+                        parseStatus(takeLine());
+                    break;
+
+                case HEADERS:
+                    if (!readLine(buffer))
+                        break;
+                    String header = takeLine();
+                    if (!header.isEmpty())
+                        addHeader(header);
+                    else if (statusCode / 100 == 1)
+                        state = State.STATUS;
+                    else
+                        startBody();
+                    break;
+
+                case BODY:
+                case CHUNK_DATA:
+                    int length = (int) Math.min(remaining, buffer.remaining());
+                    deliver(buffer, length);
+                    remaining -= length;
+                    if (remaining == 0) {
+                        if (state == State.BODY)
+                            complete(keepAlive);
+                        else
+                            state = State.CHUNK_END;
+                    }
+                    break;
+
+                case CHUNK_SIZE:
+                    if (readLine(buffer))
+                        startChunk(takeLine());
+                    break;
+
+                case CHUNK_END:
+                    if (readLine(buffer)) {
+                        takeLine();
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+
+                case TRAILERS:
+                    if (readLine(buffer) && takeLine().isEmpty())
+                        complete(keepAlive);
+                    break;
+
+                case UNTIL_CLOSE:
+                    deliver(buffer, buffer.remaining());
+                    break;
+            }
+        }
+
+        private boolean readLine(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                char c = (char) (buffer.get() & 0xff);
+                if (line.length() > MAX_LINE_LENGTH)
+                    throw new IOException("Response from " + host.name + " has an overly long line");
+                if (c == '\n')
+                    return true;
+                if (c != '\r')
+                    line.append(c);
+            }
+            return false;
+        }
+
+        private String takeLine() {
+            String taken = line.toString();
+            line.setLength(0);
+            return taken;
+        }
+
+        private void parseStatus(String statusLine) throws IOException {
+            // HTTP/1.1 200 OK
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+                throw new IOException("Not an HTTP response from " + host.name + ": " + statusLine);
+
+            try {
+                statusCode = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Bad status line from " + host.name + ": " + statusLine);
+            }
+            reasonPhrase = parts.length > 2 ? parts[2] : "";
+            keepAlive = parts[0].equals("HTTP/1.1");
+            headers.clear();
+            state = State.HEADERS;
+        }
+
+        private void addHeader(String header) throws IOException {
+            headSize += header.length();
+            if (headSize > MAX_HEAD_SIZE)
+                throw new IOException("Response from " + host.name + " has too many headers");
+
+            int colon = header.indexOf(':');
+            if (colon <= 0)
+                return;
+
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = header.substring(colon + 1).trim();
+            String existing = headers.get(name);
+            headers.put(name, existing == null ? value : existing + ", " + value);
+        }
+
+        private void startBody() throws IOException {
+            if ("close".equalsIgnoreCase(headers.get("connection")))
+                keepAlive = false;
+
+            exchange.handler.received(statusCode, reasonPhrase, headers);
+
+            String transferEncoding = headers.get("transfer-encoding");
+            String contentLength = headers.get("content-length");
+            if (statusCode == 204 || statusCode == 304) {
+                complete(keepAlive);
+            } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+                state = State.CHUNK_SIZE;
+            } else if (contentLength != null) {
+                try {
+                    remaining = Long.parseLong(contentLength);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Bad Content-Length from " + host.name + ": " + contentLength);
+                }
+                state = State.BODY;
+                if (remaining == 0)
+                    complete(keepAlive);
+            } else {
+                keepAlive = false;
+                state = State.UNTIL_CLOSE;
+            }
+        }
+
+        private void startChunk(String sizeLine) throws IOException {
+            int extension = sizeLine.indexOf(';');
+            String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+            try {
+                remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Bad chunk size from " + host.name + ": " + sizeLine);
+            }
+            state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+        }
+
+        private void deliver(ByteBuffer buffer, int length) throws IOException {
+            if (!exchange.handler.content(buffer.array(), buffer.arrayOffset() + buffer.position(), length))
+                suspended = true;
+            buffer.position(buffer.position() + length);
+        }
+
+        private void endOfStream() throws IOException {
+            if (exchange == null)
+                close();
+            else if (state == State.UNTIL_CLOSE)
+                complete(false);
+            else
+                throw new EOFException("Connection to " + host.name + " closed part way through a response");
+        }
+
+        private void complete(boolean reusable) {
+            Exchange done = exchange;
+            exchange = null;
+
+            if (reusable && running) {
+                reused = true;
+                lastActivity = System.currentTimeMillis();
+                host.idle.addFirst(this);
+                updateInterest();
+            } else {
+                close();
+            }
+            needConnections.add(host);
+
+            try {
+                finish(done).handler.completed();
+            } catch (RuntimeException re) {
+                re.printStackTrace();
+            }
+        }
+
+        void fail(IOException cause) {
+            Exchange failed = exchange;
+            exchange = null;
+            close();
+            needConnections.add(host);
+            if (failed == null)
+                return;
+
+            // A kept-alive connection may have been closed by the server just as it was reused
+            if (reused && !receivedAny && !failed.retried) {
+                failed.retried = true;
+                host.waiting.addFirst(failed);
+                return;
+            }
+
+            try {
+                finish(failed).handler.failed(cause);
+            } catch (RuntimeException re) {
+                re.printStackTrace();
+            }
+        }
+
+        void close() {
+            if (!connections.remove(this))
+                return;
+
+            host.open--;
+            host.idle.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // Nothing useful to do; the connection is being thrown away anyway
+            }
+        }
+    }
+}
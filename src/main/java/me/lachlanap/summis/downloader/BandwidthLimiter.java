@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import me.lachlanap.summis.MemoryUnit;
+
+/**
+ * A token bucket shared by every download stream, so together they stay under one rate. The rate
+ * can be changed while downloads are running, from code or over JMX; a rate of zero means
+ * unlimited.
+ *
+ * @author Lachlan Phillips
+ */
+public class BandwidthLimiter implements BandwidthLimiterMXBean {
+
+    public static final String OBJECT_NAME = "me.lachlanap.summis:type=BandwidthLimiter";
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long MAX_WAIT_MILLIS = 100;
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void waitOn(Object monitor, long millis) throws InterruptedException {
+            monitor.wait(millis);
+        }
+    };
+
+    private final Clock clock;
+
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    public BandwidthLimiter(MemoryUnit perSecond) {
+        this(perSecond, SYSTEM_CLOCK);
+    }
+
+    BandwidthLimiter(MemoryUnit perSecond, Clock clock) {
+        this.clock = clock;
+        setRate(perSecond);
+    }
+
+    public synchronized void setRate(MemoryUnit perSecond) {
+        bytesPerSecond = perSecond.inBytes();
+        tokens = Math.min(tokens, capacity());
+        lastRefill = clock.nanoTime();
+        notifyAll();
+    }
+
+    public synchronized MemoryUnit getRate() {
+        return new MemoryUnit(bytesPerSecond);
+    }
+
+    public synchronized boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    @Override
+    public String getLimit() {
+        return getRate().toString();
+    }
+
+    @Override
+    public void setLimit(String limit) {
+        setRate(MemoryUnit.parse(limit));
+    }
+
+    /**
+     * Blocks until {@code bytes} worth of tokens have been taken from the bucket.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        long remaining = bytes;
+        while (remaining > 0 && bytesPerSecond > 0) {
+            refill();
+
+            if (tokens >= 1) {
+                long taken = Math.min(remaining, (long) tokens);
+                tokens -= taken;
+                remaining -= taken;
+            } else {
+                double deficit = Math.min(remaining, capacity()) - tokens;
+                long waitNanos = (long) (deficit * NANOS_PER_SECOND / bytesPerSecond);
+                long waitMillis = Math.min(MAX_WAIT_MILLIS, waitNanos / 1000000);
+                clock.waitOn(this, Math.max(1, waitMillis));
+            }
+        }
+    }
+
+    /**
+     * Takes tokens for bytes that have already been transferred, without waiting. The bucket may
+     * go into debt, which later callers wait out.
+     */
+    public synchronized void charge(long bytes) {
+        if (bytesPerSecond <= 0)
+            return;
+
+        refill();
+        tokens -= bytes;
+    }
+
+    /**
+     * @return how long until there are tokens to spend, or 0 if there are some now
+     */
+    public synchronized long millisUntilAvailable() {
+        if (bytesPerSecond <= 0)
+            return 0;
+
+        refill();
+        if (tokens >= 1)
+            return 0;
+        return Math.max(1, (long) ((1 - tokens) * 1000 / bytesPerSecond));
+    }
+
+    private void refill() {
+        long now = clock.nanoTime();
+        tokens = Math.min(capacity(), tokens + (double) (now - lastRefill) * bytesPerSecond / NANOS_PER_SECOND);
+        lastRefill = now;
+    }
+
+    private double capacity() {
+        // A fifth of a second's worth keeps the rate smooth without starving small writes
+        return Math.max(1, bytesPerSecond / 5);
+    }
+
+    /**
+     * Makes the rate visible and changeable over JMX as {@value #OBJECT_NAME}, until
+     * {@link #unregister()}.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException jme) {
+            // Only the control is lost; downloads carry on at the configured rate
+            System.out.println("Failed to expose the bandwidth limit over JMX: " + jme);
+        }
+    }
+
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException jme) {
+            System.out.println("Failed to stop exposing the bandwidth limit over JMX: " + jme);
+        }
+    }
+
+    public OutputStream throttle(OutputStream out) {
+        return new ThrottledOutputStream(out);
+    }
+
+    public InputStream throttle(InputStream in) {
+        return new ThrottledInputStream(in);
+    }
+
+    private void acquireInterruptibly(long bytes) throws InterruptedIOException {
+        try {
+            acquire(bytes);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    /**
+     * Where the time comes from and how the limiter waits for tokens, so that tests need not wait
+     * in real time.
+     */
+    interface Clock {
+
+        long nanoTime();
+
+        /**
+         * Waits on {@code monitor}, which the caller holds, for up to {@code millis}.
+         */
+        void waitOn(Object monitor, long millis) throws InterruptedException;
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+
+        public ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            acquireInterruptibly(len);
+            out.write(b, off, len);
+        }
+    }
+
+    private class ThrottledInputStream extends FilterInputStream {
+
+        public ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1)
+                acquireInterruptibly(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0)
+                acquireInterruptibly(read);
+            return read;
+        }
+    }
+}
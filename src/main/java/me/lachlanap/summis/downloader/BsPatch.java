@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Applies patches in the bsdiff 4 layout with the three blocks gzipped rather than bzip2ed, as
+ * there is no bzip2 in the JDK:
+ *
+ * <pre>
+ * 0   8   "BSDIFFGZ"
+ * 8   8   length of the control block
+ * 16  8   length of the diff block
+ * 24  8   size of the new file
+ * 32  ..  control block, then diff block, then extra block
+ * </pre>
+ *
+ * The new file is written out in order, so it can be digested on its way to disk.
+ *
+ * @author Lachlan Phillips
+ */
+class BsPatch {
+
+    public static final String FORMAT = "bsdiff-gz";
+
+    private static final byte[] MAGIC = "BSDIFFGZ".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BsPatch() {
+    }
+
+    public static void apply(Path oldFile, Path patchFile, OutputStream out) throws IOException {
+        try (FileChannel patch = FileChannel.open(patchFile, StandardOpenOption.READ);
+             FileChannel old = FileChannel.open(oldFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining())
+                if (patch.read(header, header.position()) == -1)
+                    throw new EOFException("Patch is too short to have a header");
+            byte[] headerBytes = header.array();
+
+            if (!Arrays.equals(Arrays.copyOf(headerBytes, MAGIC.length), MAGIC))
+                throw new IOException("Not a " + FORMAT + " patch");
+            long controlLength = offset(headerBytes, 8);
+            long diffLength = offset(headerBytes, 16);
+            long newSize = offset(headerBytes, 24);
+            if (controlLength < 0 || diffLength < 0 || newSize < 0
+                || HEADER_SIZE + controlLength + diffLength > patch.size())
+                throw new IOException("Corrupt patch header");
+
+            try (DataInputStream control = block(patch, HEADER_SIZE);
+                 DataInputStream diff = block(patch, HEADER_SIZE + controlLength);
+                 DataInputStream extra = block(patch, HEADER_SIZE + controlLength + diffLength)) {
+                apply(old, control, diff, extra, newSize, out);
+            }
+        }
+    }
+
+    private static void apply(FileChannel old, DataInputStream control, DataInputStream diff, DataInputStream extra,
+                              long newSize, OutputStream out) throws IOException {
+        long oldSize = old.size();
+        byte[] fromDiff = new byte[BUFFER_SIZE];
+        byte[] fromOld = new byte[BUFFER_SIZE];
+        byte[] triple = new byte[24];
+
+        long newPosition = 0;
+        long oldPosition = 0;
+        while (newPosition < newSize) {
+            control.readFully(triple);
+            long diffCount = offset(triple, 0);
+            long extraCount = offset(triple, 8);
+            long seek = offset(triple, 16);
+            if (diffCount < 0 || extraCount < 0 || newPosition + diffCount + extraCount > newSize)
+                throw new IOException("Corrupt patch control block");
+
+            // Bytes from the diff block are added to the old file's bytes at the same position
+            for (long done = 0; done < diffCount;) {
+                int length = (int) Math.min(BUFFER_SIZE, diffCount - done);
+                diff.readFully(fromDiff, 0, length);
+                readOld(old, oldSize, oldPosition + done, fromOld, length);
+                for (int i = 0; i < length; i++)
+                    fromDiff[i] += fromOld[i];
+                out.write(fromDiff, 0, length);
+                done += length;
+            }
+            newPosition += diffCount;
+            oldPosition += diffCount;
+
+            // Bytes from the extra block are copied as they are
+            for (long done = 0; done < extraCount;) {
+                int length = (int) Math.min(BUFFER_SIZE, extraCount - done);
+                extra.readFully(fromDiff, 0, length);
+                out.write(fromDiff, 0, length);
+                done += length;
+            }
+            newPosition += extraCount;
+            oldPosition += seek;
+        }
+    }
+
+    /**
+     * Reads old file bytes, with anything outside the file read as zero.
+     */
+    private static void readOld(FileChannel old, long oldSize, long position, byte[] into, int length) throws IOException {
+        Arrays.fill(into, 0, length, (byte) 0);
+
+        long start = Math.max(position, 0);
+        long end = Math.min(position + length, oldSize);
+        if (start >= end)
+            return;
+
+        ByteBuffer buffer = ByteBuffer.wrap(into, (int) (start - position), (int) (end - start));
+        long at = start;
+        while (buffer.hasRemaining()) {
+            int read = old.read(buffer, at);
+            if (read == -1)
+                throw new EOFException("Old file changed while being patched");
+            at += read;
+        }
+    }
+
+    private static DataInputStream block(FileChannel patch, long position) throws IOException {
+        // The three blocks are read side by side, so each keeps its own position in the channel
+        return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new PositionalInputStream(patch, position))));
+    }
+
+    /**
+     * bsdiff's sign and magnitude encoding of 64 bit numbers, least significant byte first.
+     */
+    private static long offset(byte[] b, int at) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--)
+            value = (value << 8) | (b[at + i] & 0xff);
+
+        if ((value & Long.MIN_VALUE) != 0)
+            value = -(value & Long.MAX_VALUE);
+        return value;
+    }
+
+    private static class PositionalInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+
+        public PositionalInputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import me.lachlanap.summis.UpdateInformation.Chunk;
+import me.lachlanap.summis.UpdateInformation.ChunkList;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.transport.Mirror;
+
+/**
+ * Builds files that the manifest lists as content-defined chunks out of the matching chunks of
+ * the installed copy, only downloading the chunks it does not already have. Downloaded chunks
+ * are kept in tmp for the rest of the update, so chunks shared between files are fetched once
+ * and a retried file picks up where it left off.
+ *
+ * @author Lachlan Phillips
+ */
+class ChunkedDownload {
+
+    private static final String CHUNKS_DIRECTORY = "chunks";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path currentGeneration;
+    private final Path chunkRoot;
+    private final HttpRequestFactory requestFactory;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final DownloadListener downloadListener;
+
+    /**
+     * @param currentGeneration where the installed files are, or null if there are none
+     */
+    public ChunkedDownload(Path currentGeneration, Path tmpRoot, HttpRequestFactory requestFactory,
+                           BandwidthLimiter bandwidthLimiter, DownloadListener downloadListener) {
+        this.currentGeneration = currentGeneration;
+        this.chunkRoot = tmpRoot.resolve(CHUNKS_DIRECTORY);
+        this.requestFactory = requestFactory;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.downloadListener = downloadListener;
+    }
+
+    /**
+     * Writes a file into {@code partial} chunk by chunk, fetching missing chunks from
+     * {@code mirror}.
+     *
+     * @return the digests of the assembled file, or null if it is not chunked or none of its
+     *         chunks are already here, in which case fetching it in one piece is cheaper
+     */
+    public Digests assemble(FileInfo info, PartialDownload partial, Mirror mirror) throws IOException {
+        ChunkList chunkList = info.getChunks();
+        if (chunkList == null)
+            return null;
+
+        Path installed = currentGeneration == null ? null : currentGeneration.resolve(info.getName());
+        Map<String, FastCdc.Cut> local = chunkInstalled(installed, chunkList);
+        if (!anyHeld(chunkList.getChunks(), local))
+            return null;
+
+        Files.createDirectories(chunkRoot);
+        Digests digests = new Digests();
+        try (FileChannel installedChannel = local.isEmpty() ? null : FileChannel.open(installed, StandardOpenOption.READ);
+             OutputStream os = new CountingFilterOutputStream(digests.digesting(partial.start(null, false)), downloadListener, false)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (Chunk chunk : chunkList.getChunks()) {
+                FastCdc.Cut cut = local.get(chunk.getSHA1Digest().toLowerCase());
+                if (cut != null && cut.getLength() == chunk.getSize()) {
+                    copy(Channels.newInputStream(installedChannel.position(cut.getOffset())), cut.getLength(), os, buffer);
+                } else {
+                    Path cached = fetch(chunkList, chunk, mirror);
+                    try (InputStream is = Files.newInputStream(cached)) {
+                        copy(is, chunk.getSize(), os, buffer);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            partial.discard();
+            throw ioe;
+        }
+        return digests;
+    }
+
+    private Map<String, FastCdc.Cut> chunkInstalled(Path installed, ChunkList chunkList) throws IOException {
+        Map<String, FastCdc.Cut> cuts = new HashMap<>();
+        if (installed == null || !Files.isRegularFile(installed))
+            return cuts;
+
+        FastCdc chunker = new FastCdc(chunkList.getMinSize(), chunkList.getAverageSize(), chunkList.getMaxSize());
+        for (FastCdc.Cut cut : chunker.chunk(installed))
+            cuts.put(cut.getSHA1Digest(), cut);
+        return cuts;
+    }
+
+    private boolean anyHeld(List<Chunk> chunks, Map<String, FastCdc.Cut> local) {
+        for (Chunk chunk : chunks)
+            if (local.containsKey(chunk.getSHA1Digest().toLowerCase()) || Files.isRegularFile(cachePath(chunk)))
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the chunk in the cache, downloading it there first if need be
+     */
+    private Path fetch(ChunkList chunkList, Chunk chunk, Mirror mirror) throws IOException {
+        Path cached = cachePath(chunk);
+        if (Files.isRegularFile(cached))
+            return cached;
+
+        // Another file may be fetching the same chunk; whichever finishes last just replaces it
+        Path incoming = Files.createTempFile(chunkRoot, chunk.getSHA1Digest(), ".part");
+        try {
+            Digests digests = new Digests();
+            HttpResponse response = RangeRequests.get(requestFactory, new GenericUrl(mirror.resolve(chunkList.getUrl(chunk))), 0, -1, null);
+            try (InputStream is = new CountingFilterInputStream(bandwidthLimiter.throttle(response.getContent()), downloadListener);
+                 OutputStream os = digests.digesting(Files.newOutputStream(incoming))) {
+                copy(is, Long.MAX_VALUE, os, new byte[BUFFER_SIZE]);
+            } finally {
+                response.disconnect();
+            }
+
+            if (Files.size(incoming) != chunk.getSize() || !digests.getSHA1Digest().equalsIgnoreCase(chunk.getSHA1Digest()))
+                throw new IOException("Chunk " + chunk.getSHA1Digest() + " was corrupt when downloaded");
+
+            Files.move(incoming, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return cached;
+        } finally {
+            Files.deleteIfExists(incoming);
+        }
+    }
+
+    private Path cachePath(Chunk chunk) {
+        return chunkRoot.resolve(chunk.getSHA1Digest().toLowerCase());
+    }
+
+    private static void copy(InputStream in, long length, OutputStream out, byte[] buffer) throws IOException {
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+
+        if (remaining > 0 && length != Long.MAX_VALUE)
+            throw new IOException("Chunk ended " + remaining + " bytes early");
+    }
+}
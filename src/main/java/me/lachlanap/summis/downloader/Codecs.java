@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import me.lachlanap.summis.UpdateInformation.Encoding;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * The compressed encodings files can be downloaded in. Stronger codecs go here as they are added.
+ *
+ * @author Lachlan Phillips
+ */
+final class Codecs {
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Codecs() {
+    }
+
+    static boolean isSupported(String encoding) {
+        return GZIP.equals(encoding) || DEFLATE.equals(encoding);
+    }
+
+    /**
+     * @return the smallest supported encoding of a file, or null if none is smaller than the file
+     */
+    static Encoding choose(FileInfo info) {
+        Encoding best = null;
+        for (Encoding encoding : info.getEncodings()) {
+            if (!isSupported(encoding.getEncoding())
+                || encoding.getSize().inBytes() >= info.getSize().inBytes())
+                continue;
+
+            if (best == null || encoding.getSize().inBytes() < best.getSize().inBytes())
+                best = encoding;
+        }
+        return best;
+    }
+
+    static InputStream decode(String encoding, InputStream in) throws IOException {
+        switch (encoding) {
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            default:
+                throw new IOException("Unsupported encoding " + encoding);
+        }
+    }
+}
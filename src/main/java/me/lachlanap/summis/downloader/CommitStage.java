@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * The second half of fetching a file: checking what arrived in tmp and moving it into bin. Files
+ * whose digests were worked out as they streamed in are committed straight away on the network
+ * thread; the rest queue for the hashing pool as soon as their bytes are down. The hashing backlog
+ * is bounded, so network threads wait rather than pile up unchecked files on disk.
+ *
+ * @author Lachlan Phillips
+ */
+class CommitStage {
+
+    private final Path binaryRoot;
+    private final TransferScheduler scheduler;
+    private final Semaphore backlog;
+    private final FileVerifier verifier;
+    private final InstallIndex installIndex;
+    private final ContentStore contentStore;
+    private final DownloadListener downloadListener;
+
+    public CommitStage(Path binaryRoot, TransferScheduler scheduler, int backlog, FileVerifier verifier,
+                       InstallIndex installIndex, ContentStore contentStore, DownloadListener downloadListener) {
+        this.binaryRoot = binaryRoot;
+        this.scheduler = scheduler;
+        this.backlog = new Semaphore(backlog);
+        this.verifier = verifier;
+        this.installIndex = installIndex;
+        this.contentStore = contentStore;
+        this.downloadListener = downloadListener;
+    }
+
+    /**
+     * @return whether the content store had the file, in which case it is already installed
+     */
+    public boolean fromStore(FileInfo info, FileTransfer transfer) throws IOException {
+        Path destination = binaryRoot.resolve(info.getName());
+        if (!contentStore.fetch(info, destination))
+            return false;
+
+        installIndex.verified(info, installIndex.stamp(info));
+        downloadListener.downloadedSome(info.getSize());
+        downloadListener.completedADownload();
+        transfer.succeeded();
+        return true;
+    }
+
+    /**
+     * Checks and installs a downloaded file, telling {@code transfer} how it went.
+     *
+     * @param digests what was digested while the file streamed in, or null if it still needs
+     *                reading back
+     */
+    public void commit(FileInfo info, PartialDownload partial, Digests digests, FileTransfer transfer) throws InterruptedException {
+        if (digests != null)
+            new Commit(info, partial, digests, transfer, false).call();
+        else
+            submit(new Commit(info, partial, null, transfer, true));
+    }
+
+    /**
+     * Like {@link #commit} for a file whose digests are known, but run on the hashing pool, for
+     * callers that must not block on the disk. It still counts against the hashing backlog, since
+     * moving the file in and storing a copy of it is disk work queued behind the hashing.
+     */
+    public void commitLater(FileInfo info, PartialDownload partial, Digests digests, FileTransfer transfer) throws InterruptedException {
+        submit(new Commit(info, partial, digests, transfer, true));
+    }
+
+    private void submit(Commit commit) throws InterruptedException {
+        backlog.acquire();
+        try {
+            scheduler.submitHashing(commit, commit.info.getSize().inBytes());
+        } catch (RuntimeException re) {
+            backlog.release();
+            throw re;
+        }
+    }
+
+    private class Commit implements Callable<Void> {
+
+        private final FileInfo info;
+        private final PartialDownload partial;
+        private final Digests digests;
+        private final FileTransfer transfer;
+        private final boolean queued;
+
+        public Commit(FileInfo info, PartialDownload partial, Digests digests, FileTransfer transfer, boolean queued) {
+            this.info = info;
+            this.partial = partial;
+            this.digests = digests;
+            this.transfer = transfer;
+            this.queued = queued;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                checkIsRightSize();
+                checkDigests();
+
+                Path destination = binaryRoot.resolve(info.getName());
+                Files.move(partial.getFile(), destination, StandardCopyOption.REPLACE_EXISTING);
+                installIndex.verified(info, installIndex.stamp(info));
+                partial.completed();
+                storeCopy(destination);
+                downloadListener.completedADownload();
+                transfer.succeeded();
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                transfer.failed(e);
+            } finally {
+                if (queued)
+                    backlog.release();
+            }
+            return null;
+        }
+
+        private void checkIsRightSize() throws IOException {
+            MemoryUnit actualSize = new MemoryUnit(Files.size(partial.getFile()));
+            if (!actualSize.equals(info.getSize())) {
+                partial.discard();
+                throw new IOException("Size of " + info.getName() + " does not match expected. " + "Expected: " + info.getSize() + " got: " + actualSize);
+            }
+        }
+
+        private void checkDigests() throws IOException, InterruptedException {
+            boolean matches = digests != null
+                              ? digests.matches(info)
+                              : verifier.matches(partial.getFile(), info);
+            if (!matches) {
+                partial.discard();
+                throw new IOException(info.getName() + " failed verification");
+            }
+        }
+
+        private void storeCopy(Path destination) {
+            try {
+                contentStore.put(info, destination);
+            } catch (IOException ioe) {
+                // The install is already in place; it just won't be reused next time
+                ioe.printStackTrace();
+            }
+        }
+    }
+}
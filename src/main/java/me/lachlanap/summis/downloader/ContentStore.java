@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * Files keyed by their SHA-1, kept outside any one install so that reinstalls and other projects
+ * shipping the same file can skip downloading it. Least recently used files are evicted once the
+ * store grows past its size limit; a limit of zero turns the store off.
+ *
+ * @author Lachlan Phillips
+ */
+public class ContentStore {
+
+    private static final String OBJECTS_DIRECTORY = "objects";
+    private static final String INDEX_FILE = "index";
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+
+    private final Path root;
+    private final Path objectsRoot;
+    private final long sizeLimit;
+
+    // In access order, so the first entry is the least recently used
+    private final LinkedHashMap<String, Long> entries;
+    private long totalSize;
+    private boolean loaded;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public ContentStore(Path root, MemoryUnit sizeLimit) {
+        this.root = root;
+        this.objectsRoot = root.resolve(OBJECTS_DIRECTORY);
+        this.sizeLimit = sizeLimit.inBytes();
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.totalSize = 0;
+        this.loaded = false;
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public boolean isEnabled() {
+        return sizeLimit > 0;
+    }
+
+    /**
+     * Puts a copy of a stored file at {@code destination}, if the store has one that still
+     * matches the digests in {@code info}.
+     *
+     * @return whether the file came from the store
+     */
+    boolean fetch(FileInfo info, Path destination) throws IOException {
+        String key = keyOf(info);
+        if (!isEnabled() || key == null)
+            return false;
+
+        synchronized (this) {
+            load();
+            if (entries.get(key) == null) {
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+
+        Path entry = pathOf(key);
+        if (!Files.exists(entry)
+            || Files.size(entry) != info.getSize().inBytes()
+            || !Digests.of(entry).matches(info)) {
+            remove(key);
+            misses.incrementAndGet();
+            return false;
+        }
+
+        Files.deleteIfExists(destination);
+        linkOrCopy(entry, destination);
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds a verified file to the store, evicting older files to make room.
+     */
+    void put(FileInfo info, Path file) throws IOException {
+        String key = keyOf(info);
+        long size = info.getSize().inBytes();
+        if (!isEnabled() || key == null || size > sizeLimit)
+            return;
+
+        synchronized (this) {
+            load();
+            if (entries.get(key) != null)
+                return;
+        }
+
+        Path entry = pathOf(key);
+        Path tmp = entry.resolveSibling(key + ".tmp-" + Thread.currentThread().getId());
+        Files.createDirectories(entry.getParent());
+        Files.deleteIfExists(tmp);
+        linkOrCopy(file, tmp);
+        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            if (entries.put(key, size) == null)
+                totalSize += size;
+            evict();
+        }
+    }
+
+    private synchronized void remove(String key) throws IOException {
+        Long size = entries.remove(key);
+        if (size != null)
+            totalSize -= size;
+        Files.deleteIfExists(pathOf(key));
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> oldestFirst = entries.entrySet().iterator();
+        while (totalSize > sizeLimit && oldestFirst.hasNext()) {
+            Map.Entry<String, Long> oldest = oldestFirst.next();
+            oldestFirst.remove();
+            totalSize -= oldest.getValue();
+            Files.deleteIfExists(pathOf(oldest.getKey()));
+        }
+    }
+
+    /**
+     * Writes out the usage order, so eviction carries on from where this run left it.
+     */
+    public synchronized void save() {
+        if (!isEnabled() || !loaded)
+            return;
+
+        Path index = root.resolve(INDEX_FILE);
+        Path tmp = root.resolve(INDEX_FILE + ".tmp");
+        try {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Long> entry : entries.entrySet())
+                    writer.println(entry.getKey() + " " + entry.getValue());
+            }
+            Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+
+        Files.createDirectories(objectsRoot);
+
+        Path index = root.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    if (parts.length == 2 && SHA1.matcher(parts[0]).matches() && Files.exists(pathOf(parts[0])))
+                        add(parts[0], Files.size(pathOf(parts[0])));
+                }
+            }
+        }
+
+        // Files another process stored without managing to update the index
+        Files.walkFileTree(objectsRoot, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String key = file.getFileName().toString();
+                if (SHA1.matcher(key).matches() && !entries.containsKey(key))
+                    add(key, attrs.size());
+                return super.visitFile(file, attrs);
+            }
+        });
+
+        evict();
+    }
+
+    private void add(String key, long size) {
+        if (entries.put(key, size) == null)
+            totalSize += size;
+    }
+
+    private Path pathOf(String key) {
+        return objectsRoot.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static String keyOf(FileInfo info) {
+        String sha1 = info.getSHA1Digest().toLowerCase();
+        return SHA1.matcher(sha1).matches() ? sha1 : null;
+    }
+
+    static void linkOrCopy(Path from, Path to) throws IOException {
+        try {
+            Files.createLink(to, from);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Different file systems, or no hard links on this one
+            Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public MemoryUnit getSize() {
+        synchronized (this) {
+            return new MemoryUnit(totalSize);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.MemoryUnit.Prefix;
+
+/**
+ * Reports bytes read from the network that are not written to disk as they are, such as
+ * compressed files and patches.
+ *
+ * @author Lachlan Phillips
+ */
+public class CountingFilterInputStream extends FilterInputStream {
+    private static final MemoryUnit INTERVAL = new MemoryUnit(Prefix.Kilo, 2);
+    private final DownloadListener listener;
+    private long transferedSoFar;
+    private long lastNotify;
+
+    public CountingFilterInputStream(InputStream in, DownloadListener listener) {
+        super(in);
+        this.listener = listener;
+        transferedSoFar = 0;
+        lastNotify = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1)
+            count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0)
+            count(read);
+        return read;
+    }
+
+    private void count(int read) {
+        transferedSoFar += read;
+        while ((transferedSoFar - lastNotify) > INTERVAL.inBytes()) {
+            listener.receivedSome(INTERVAL);
+            lastNotify += INTERVAL.inBytes();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        listener.receivedSome(new MemoryUnit(transferedSoFar - lastNotify));
+        lastNotify = transferedSoFar;
+    }
+}
@@ -36,22 +36,46 @@ import me.lachlanap.summis.MemoryUnit.Prefix;
 public class CountingFilterOutputStream extends FilterOutputStream {
     private static final MemoryUnit INTERVAL = new MemoryUnit(Prefix.Kilo, 2);
     private final DownloadListener listener;
+    private final boolean asReceived;
     private long transferedSoFar;
     private long lastNotify;
 
+    /**
+     * Counts bytes that came over the network exactly as they are written.
+     */
     public CountingFilterOutputStream(OutputStream out, DownloadListener listener) {
+        this(out, listener, true);
+    }
+
+    /**
+     * @param asReceived whether the bytes also count as received over the network, rather than
+     *                   being decompressed from what was
+     */
+    public CountingFilterOutputStream(OutputStream out, DownloadListener listener, boolean asReceived) {
         super(out);
         this.listener = listener;
+        this.asReceived = asReceived;
         transferedSoFar = 0;
         lastNotify = 0;
     }
 
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count(1);
+    }
+
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        super.write(b, off, len);
+        // FilterOutputStream would otherwise hand these on one byte at a time
+        out.write(b, off, len);
+        count(len);
+    }
+
+    private void count(int len) {
         transferedSoFar += len;
         while ((transferedSoFar - lastNotify) > INTERVAL.inBytes()) {
-            listener.downloadedSome(INTERVAL);
+            notify(INTERVAL);
             lastNotify += INTERVAL.inBytes();
         }
     }
@@ -59,7 +83,13 @@ public class CountingFilterOutputStream extends FilterOutputStream {
     @Override
     public void close() throws IOException {
         super.close();
-        listener.downloadedSome(new MemoryUnit(transferedSoFar - lastNotify));
+        notify(new MemoryUnit(transferedSoFar - lastNotify));
+    }
+
+    private void notify(MemoryUnit amount) {
+        listener.downloadedSome(amount);
+        if (asReceived)
+            listener.receivedSome(amount);
     }
 
 }
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The MD5 and SHA-1 of a file, built up as its bytes go past.
+ *
+ * @author Lachlan Phillips
+ */
+class Digests {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest md5;
+    private final MessageDigest sha1;
+    private String md5Digest;
+    private String sha1Digest;
+
+    public Digests() {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("MD5 and SHA-1 must be available", nsae);
+        }
+    }
+
+    public static Digests of(Path file) throws IOException {
+        return ofPrefix(file, Long.MAX_VALUE);
+    }
+
+    /**
+     * Digests the first {@code length} bytes of a file, such as the part of a download that was
+     * already on disk before it was resumed.
+     */
+    public static Digests ofPrefix(Path file, long length) throws IOException {
+        Digests digests = new Digests();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while (remaining > 0 && (read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                digests.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return digests;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        md5.update(b, off, len);
+        sha1.update(b, off, len);
+    }
+
+    /**
+     * @return a stream that digests everything written through it on its way to {@code out}
+     */
+    public OutputStream digesting(OutputStream out) {
+        return new DigestOutputStream(new DigestOutputStream(out, md5), sha1);
+    }
+
+    public String getMD5Digest() {
+        if (md5Digest == null)
+            md5Digest = new String(Hex.encodeHex(md5.digest()));
+        return md5Digest;
+    }
+
+    public String getSHA1Digest() {
+        if (sha1Digest == null)
+            sha1Digest = new String(Hex.encodeHex(sha1.digest()));
+        return sha1Digest;
+    }
+
+    public boolean matches(FileInfo info) {
+        return getMD5Digest().equals(info.getMD5Digest()) && getSHA1Digest().equals(info.getSHA1Digest());
+    }
+}
@@ -33,8 +33,17 @@ public interface DownloadListener {
 
     public void startingDownload(int numberOfFiles, MemoryUnit totalSize);
 
+    /**
+     * @param amount how much more of the files, as installed, is on disk
+     */
     public void downloadedSome(MemoryUnit amount);
 
+    /**
+     * @param amount how much more has come over the network, which for compressed files or
+     *               patches is less than what ends up on disk
+     */
+    public void receivedSome(MemoryUnit amount);
+
     public void completedADownload();
 
 
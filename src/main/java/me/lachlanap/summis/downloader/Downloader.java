@@ -23,16 +23,24 @@
  */
 package me.lachlanap.summis.downloader;
 
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpTransport;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import me.lachlanap.config.Configuration;
+import me.lachlanap.summis.Generations;
 import me.lachlanap.summis.MemoryUnit;
 import me.lachlanap.summis.UpdateInformation;
 import me.lachlanap.summis.UpdateInformation.FileInfo;
 import me.lachlanap.summis.UpdateInformation.FileSet;
+import me.lachlanap.summis.UpdateInformation.Group;
+import me.lachlanap.summis.Version;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.MirrorSet;
 
 /**
  *
@@ -40,61 +48,344 @@ import me.lachlanap.summis.UpdateInformation.FileSet;
  */
 public class Downloader {
 
-    private static final String BINARY_DIRECTORY = "bin";
-
-    private final ExecutorService EXECUTOR
-            = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
-                                           new ThreadFactory() {
-
-                                               @Override
-                                               public Thread newThread(Runnable r) {
-                                                   Thread thread = new Thread(r);
-                                                   thread.setDaemon(true);
-                                                   thread.setName("Summis Client: HTTP Download Executor");
-                                                   return thread;
-                                               }
-                                           });
+    private static final String INDEX_FILE = "files.index";
 
     private final Path installRoot;
-    private final Path binaryRoot;
     private final Path tmpRoot;
+    private final Generations generations;
     private final UpdateInformation versionInfo;
+    private final HttpRequestFactory requestFactory;
     private final DownloadListener downloadListener;
     private final boolean downloadFresh;
+    private final TransferScheduler scheduler;
+    private final SegmentPolicy segmentPolicy;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ContentStore contentStore;
+    private final FileVerifier verifier;
+    private final int hashingBacklog;
+    private final RetryPolicy retryPolicy;
+    private final AsyncHttpEngine engine;
+    private final MirrorSet mirrors;
+    private final HedgePolicy hedgePolicy;
+    private final Metrics metrics;
+
+    private Path staged;
+    private InstallIndex installIndex;
+    private TransferContext context;
+    private List<FileTransfer> deferredTransfers;
 
-    public Downloader(Path installRoot,
+    public Downloader(Configuration config,
+                      Path installRoot,
                       UpdateInformation versionInfo,
+                      HttpTransport transport,
+                      MirrorSet mirrors,
+                      ContentStore contentStore,
+                      BandwidthLimiter bandwidthLimiter,
                       DownloadListener downloadListener,
+                      Metrics metrics,
                       boolean downloadFresh) {
         this.installRoot = installRoot;
-        this.binaryRoot = installRoot.resolve(BINARY_DIRECTORY);
         this.tmpRoot = installRoot.resolve("tmp");
+        this.generations = new Generations(installRoot);
 
         this.versionInfo = versionInfo;
+        this.requestFactory = transport.createRequestFactory();
+        this.mirrors = mirrors;
         this.downloadListener = downloadListener;
         this.downloadFresh = downloadFresh;
+        this.contentStore = contentStore;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.metrics = metrics;
+
+        this.scheduler = new TransferScheduler(Integer.parseInt(config.getString("download.threads.network")),
+                                               threadCount(config.getString("download.threads.hashing")));
+        this.segmentPolicy = new SegmentPolicy(MemoryUnit.parse(config.getString("download.segment.threshold")),
+                                               Integer.parseInt(config.getString("download.segment.count")),
+                                               scheduler.getSegmentExecutor());
+        this.verifier = new FileVerifier(scheduler.getDigestHelperExecutor());
+        this.hashingBacklog = Integer.parseInt(config.getString("download.hashing-backlog"));
+        this.retryPolicy = new RetryPolicy(Integer.parseInt(config.getString("download.retry.attempts")),
+                                           Long.parseLong(config.getString("download.retry.delay")),
+                                           Long.parseLong(config.getString("download.retry.max-delay")));
+        this.hedgePolicy = new HedgePolicy(Double.parseDouble(config.getString("download.hedge.factor")),
+                                           Long.parseLong(config.getString("download.hedge.min-delay")),
+                                           scheduler);
+        this.engine = createEngine(config.getString("download.engine"),
+                                   Integer.parseInt(config.getString("download.async.connections-per-host")));
+    }
+
+    private AsyncHttpEngine createEngine(String name, int connectionsPerHost) {
+        switch (name.trim()) {
+            case "blocking":
+                return null;
+            case "async":
+                try {
+                    return new AsyncHttpEngine(connectionsPerHost, bandwidthLimiter);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to start the async download engine", ex);
+                }
+            default:
+                throw new RuntimeException("Unknown download engine: " + name);
+        }
+    }
+
+    private static int threadCount(String configured) {
+        int count = Integer.parseInt(configured);
+        return count > 0 ? count : Runtime.getRuntime().availableProcessors();
+    }
+
+    public TransferScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * The limit can be changed through this while {@link #go()} is running.
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
     }
 
 
-    public void go() throws InterruptedException {
+    /**
+     * Installs the boot files of the update and makes them current. Deferred files carry on
+     * downloading afterwards into a generation staged from that one; see {@link #awaitDeferred()}.
+     *
+     * @return what happened to each boot file
+     * @throws UpdateFailedException if any boot file could not be installed, in which case the
+     *                               current install is left as it was
+     */
+    public List<FileOutcome> go() throws InterruptedException {
         FileSet fileSet = getFileSet();
+        if (fileSet.getFileCount() == 0) {
+            recordUnchanged();
+            return new ArrayList<>();
+        }
+
+        List<FileInfo> boot = new ArrayList<>();
+        List<FileInfo> deferred = new ArrayList<>();
+        for (FileInfo info : fileSet.getFiles()) {
+            if (info.getGroup() == Group.DEFERRED)
+                deferred.add(info);
+            else
+                boot.add(info);
+        }
 
-        int numberOfFiles = fileSet.getFileCount();
-        MemoryUnit totalSize = fileSet.getTotalSize();
+        stageGeneration();
 
-        if (numberOfFiles == 0)
+        List<FileOutcome> outcomes = downloadAll(boot);
+        failIfIncomplete(outcomes);
+
+        // Until the deferred files are in, this generation still counts as the old version
+        if (deferred.isEmpty())
+            generations.setVersion(staged, versionInfo.getLatest());
+        else if (versionInfo.getCurrent().isGreaterThan(Version.ZERO))
+            generations.setVersion(staged, versionInfo.getCurrent());
+
+        long committing = System.nanoTime();
+        generations.activate(staged);
+        saveIndexes();
+        metrics.recordMillisSince("downloader.commit-ms", committing);
+
+        // Deferred files only start now, so they never hold up the boot files
+        if (deferred.isEmpty())
+            cleanUp();
+        else {
+            stageDeferred();
+            deferredTransfers = startDownloads(deferred);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Installs the whole update, deferred files included, into a generation that is only made
+     * current the next time the app starts, so it can run while this is going on.
+     *
+     * @return what happened to each file
+     * @throws UpdateFailedException if any file could not be installed, in which case nothing
+     *                               changes on the next start
+     */
+    public List<FileOutcome> goForNextStart() throws InterruptedException {
+        FileSet fileSet = getFileSet();
+        if (fileSet.getFileCount() == 0) {
+            recordUnchanged();
+            return new ArrayList<>();
+        }
+
+        stageGeneration();
+
+        List<FileOutcome> outcomes = downloadAll(fileSet.getFiles());
+        failIfIncomplete(outcomes);
+
+        // Becomes the installed version when the generation becomes current, not before
+        generations.setVersion(staged, versionInfo.getLatest());
+        long committing = System.nanoTime();
+        generations.activateOnNextStart(staged);
+        saveIndexes();
+        metrics.recordMillisSince("downloader.commit-ms", committing);
+        cleanUp();
+        return outcomes;
+    }
+
+    /**
+     * An update that changes no files only needs its version recording against what is there.
+     */
+    private void recordUnchanged() {
+        Path current = generations.getCurrent();
+        if (current != null)
+            generations.setVersion(current, versionInfo.getLatest());
+    }
+
+    private void stageGeneration() {
+        // Anything left in tmp is a partial download from an earlier run, so keep it to resume from
+        ensureDirectory(tmpRoot);
+
+        // The update goes into a fresh generation; the current one stays untouched until it is complete
+        Path current = generations.getCurrent();
+        staged = generations.stage();
+        installIndex = new InstallIndex(installRoot.resolve(INDEX_FILE), staged);
+        if (!downloadFresh && current != null)
+            linkUnchanged(current, staged);
+
+        context = createContext(current);
+    }
+
+    /**
+     * The app runs from the generation just activated, so deferred files go into another one
+     * holding everything it has, which becomes current once they are all in.
+     */
+    private void stageDeferred() {
+        Path live = staged;
+        staged = generations.stage();
+        installIndex = new InstallIndex(installRoot.resolve(INDEX_FILE), staged);
+        linkAll(live, staged);
+
+        context = createContext(live);
+    }
+
+    /**
+     * @param current the generation older versions of files are read from for patches and chunks
+     */
+    private TransferContext createContext(Path current) {
+        return TransferContext.builder()
+                .requestFactory(requestFactory)
+                .tmpRoot(tmpRoot)
+                .downloadListener(downloadListener)
+                .scheduler(scheduler)
+                .mirrors(mirrors)
+                .hedgePolicy(hedgePolicy)
+                .segmentPolicy(segmentPolicy)
+                .bandwidthLimiter(bandwidthLimiter)
+                .commitStage(new CommitStage(staged, scheduler, hashingBacklog, verifier,
+                                             installIndex, contentStore, downloadListener))
+                .patcher(new Patcher(current, tmpRoot, requestFactory, verifier, installIndex,
+                                     bandwidthLimiter, downloadListener))
+                .jarRebuilder(new JarRebuilder(current, requestFactory, bandwidthLimiter, downloadListener))
+                .chunked(new ChunkedDownload(current, tmpRoot, requestFactory, bandwidthLimiter, downloadListener))
+                .engine(engine)
+                .metrics(metrics)
+                .build();
+    }
+
+    private void failIfIncomplete(List<FileOutcome> outcomes) {
+        if (allInstalled(outcomes))
             return;
 
-        createDirectory(tmpRoot);
-        createDirectory(binaryRoot);
+        saveIndexes();
+        generations.discard(staged);
+        throw new UpdateFailedException(outcomes);
+    }
 
-        downloadListener.startingDownload(numberOfFiles, totalSize);
-        downloadFiles(fileSet);
+    /**
+     * @return whether deferred files are still downloading after {@link #go()}
+     */
+    public boolean hasDeferred() {
+        return deferredTransfers != null;
+    }
 
-        downloadListener.startingVerify(numberOfFiles);
-        verifyFiles(fileSet);
+    /**
+     * Waits for the deferred files to finish, then makes the generation they went into current.
+     * The generation the app is running from is never changed.
+     *
+     * @return what happened to each deferred file
+     * @throws UpdateFailedException if any deferred file could not be installed, in which case
+     *                               the current generation stays as it was
+     */
+    public List<FileOutcome> awaitDeferred() throws InterruptedException {
+        if (deferredTransfers == null)
+            return new ArrayList<>();
 
-        deleteDirectory(tmpRoot);
+        List<FileOutcome> outcomes = awaitDownloads(deferredTransfers);
+        deferredTransfers = null;
+        failIfIncomplete(outcomes);
+
+        generations.setVersion(staged, versionInfo.getLatest());
+        long committing = System.nanoTime();
+        generations.activate(staged);
+        saveIndexes();
+        metrics.recordMillisSince("downloader.commit-ms", committing);
+        cleanUp();
+        return outcomes;
+    }
+
+    private List<FileOutcome> downloadAll(List<FileInfo> files) throws InterruptedException {
+        return awaitDownloads(startDownloads(files));
+    }
+
+    private static boolean allInstalled(List<FileOutcome> outcomes) {
+        for (FileOutcome outcome : outcomes)
+            if (!outcome.isInstalled())
+                return false;
+        return true;
+    }
+
+    private void saveIndexes() {
+        installIndex.retain(versionInfo.getFullFileset());
+        installIndex.save();
+        contentStore.save();
+    }
+
+    /**
+     * Hard links (or failing that, copies) files the update leaves alone into the new generation.
+     * Deferred files are carried over too, so the app has their old versions until the new ones
+     * arrive.
+     */
+    private void linkUnchanged(Path current, Path staged) {
+        FileSet changed = versionInfo.getDiffFileset();
+        try {
+            for (FileInfo info : versionInfo.getFullFileset().getFiles()) {
+                Path existing = current.resolve(info.getName());
+                if ((changed.contains(info) && info.getGroup() != Group.DEFERRED) || !Files.exists(existing))
+                    continue;
+
+                Path linked = staged.resolve(info.getName());
+                Files.createDirectories(linked.getParent());
+                ContentStore.linkOrCopy(existing, linked);
+            }
+        } catch (IOException ex) {
+            generations.discard(staged);
+            throw new RuntimeException("Failed to carry unchanged files into the new generation", ex);
+        }
+    }
+
+    /**
+     * Hard links (or failing that, copies) every file of the update that {@code from} has into
+     * {@code to}.
+     */
+    private void linkAll(Path from, Path to) {
+        try {
+            for (FileInfo info : versionInfo.getFullFileset().getFiles()) {
+                Path existing = from.resolve(info.getName());
+                if (!Files.exists(existing))
+                    continue;
+
+                Path linked = to.resolve(info.getName());
+                Files.createDirectories(linked.getParent());
+                ContentStore.linkOrCopy(existing, linked);
+            }
+        } catch (IOException ex) {
+            generations.discard(to);
+            throw new RuntimeException("Failed to carry files into the generation for deferred files", ex);
+        }
     }
 
     private FileSet getFileSet() {
@@ -104,12 +395,18 @@ public class Downloader {
             return versionInfo.getDiffFileset();
     }
 
-    private void createDirectory(Path directory) {
+    private void cleanUp() {
+        long cleaning = System.nanoTime();
+        deleteDirectory(tmpRoot);
+        metrics.recordMillisSince("downloader.cleanup-ms", cleaning);
+    }
+
+    private void ensureDirectory(Path directory) {
         try {
-            deleteDirectory(directory);
-            Files.createDirectory(directory);
+            if (!Files.isDirectory(directory))
+                Files.createDirectory(directory);
         } catch (IOException ex) {
-            throw new RuntimeException("Failed to delete tmp download directory", ex);
+            throw new RuntimeException("Failed to create tmp download directory", ex);
         }
     }
 
@@ -125,61 +422,43 @@ public class Downloader {
                         return super.visitFile(file, attrs);
                     }
 
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                        Files.delete(dir);
+                        return super.postVisitDirectory(dir, exc);
+                    }
+
                 });
-                Files.delete(directory);
             }
         } catch (IOException ex) {
             throw new RuntimeException("Failed to delete tmp download directory", ex);
         }
     }
 
-    private void downloadFiles(FileSet fileSet) throws InterruptedException {
-        List<Callable<Void>> downloaders = new ArrayList<>();
-        for (FileInfo info : fileSet.getFiles())
-            downloaders.add(new DownloaderCallable(info, binaryRoot, tmpRoot, downloadListener));
+    private List<FileTransfer> startDownloads(List<FileInfo> files) {
+        long totalSize = 0;
+        for (FileInfo info : files)
+            totalSize += info.getSize().inBytes();
+        downloadListener.startingDownload(files.size(), new MemoryUnit(totalSize));
 
-        List<Future<Void>> futures = EXECUTOR.invokeAll(downloaders);
-        for (Future<Void> future : futures) {
-            try {
-                future.get();
-            } catch (ExecutionException ee) {
-                ee.getCause().printStackTrace();
-            }
+        List<FileTransfer> transfers = new ArrayList<>();
+        for (FileInfo info : files) {
+            FileTransfer transfer = new FileTransfer(info, retryPolicy, scheduler);
+            transfer.start(new DownloaderCallable(info, transfer, context));
+            transfers.add(transfer);
         }
-
-        deleteInvalidFiles();
+        return transfers;
     }
 
-    private void deleteInvalidFiles() {
-        try {
-            Files.walkFileTree(binaryRoot, new SimpleFileVisitor<Path>() {
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if (!Files.isDirectory(file)) {
-                        String relativeFilename = binaryRoot.relativize(file).toString();
-
-                        boolean found = false;
-                        for (FileInfo info : versionInfo.getFullFileset().getFiles())
-                            if (info.getName().equals(relativeFilename))
-                                found = true;
-
-                        if (!found)
-                            Files.delete(file);
-                    }
-                    return super.visitFile(file, attrs);
-                }
-
-            });
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to delete tmp download directory", ex);
+    private List<FileOutcome> awaitDownloads(List<FileTransfer> transfers) throws InterruptedException {
+        // Each file is committed as soon as it arrives, so the order these are waited on is moot
+        List<FileOutcome> outcomes = new ArrayList<>();
+        for (FileTransfer transfer : transfers) {
+            FileOutcome outcome = transfer.await();
+            metrics.counter("download.retries").add(outcome.getAttempts() - 1);
+            outcomes.add(outcome);
         }
-    }
 
-    private void verifyFiles(FileSet fileSet) throws InterruptedException {
-        List<Callable<Void>> verifiers = new ArrayList<>();
-        for (FileInfo info : fileSet.getFiles())
-            verifiers.add(new VerifierCallable(info, binaryRoot, downloadListener));
-        EXECUTOR.invokeAll(verifiers);
+        return outcomes;
     }
 }
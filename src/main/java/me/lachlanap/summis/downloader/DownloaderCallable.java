@@ -24,64 +24,158 @@
 package me.lachlanap.summis.downloader;
 
 import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpRequest;
-import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.concurrent.Callable;
-import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.Encoding;
 import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.transport.Mirror;
 
 /**
+ * One attempt at fetching a file into tmp, which is then handed on to the commit stage.
  *
  * @author Lachlan Phillips
  */
 class DownloaderCallable implements Callable<Void> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String HEDGE_SUFFIX = ".hedge";
+
     private final FileInfo info;
-    private final Path binaryRoot;
-    private final Path tmpRoot;
-    private final DownloadListener downloadListener;
+    private final FileTransfer transfer;
+    private final TransferContext context;
 
-    public DownloaderCallable(FileInfo info, Path binaryRoot, Path tmpRoot, DownloadListener downloadListener) {
+    public DownloaderCallable(FileInfo info, FileTransfer transfer, TransferContext context) {
         this.info = info;
-        this.binaryRoot = binaryRoot;
-        this.tmpRoot = tmpRoot;
-        this.downloadListener = downloadListener;
+        this.transfer = transfer;
+        this.context = context;
     }
 
     @Override
     public Void call() throws Exception {
+        if (context.getCommitStage().fromStore(info, transfer))
+            return null;
+
+        // Fail over straight away rather than waiting out a retry on the same server
+        IOException failure = null;
+        for (Mirror mirror : context.getMirrors().rank(info.getSize().inBytes())) {
+            try {
+                fetchFrom(mirror);
+                return null;
+            } catch (IOException ioe) {
+                mirror.failed();
+                context.getMetrics().counter("download.failovers").increment();
+                failure = ioe;
+            }
+        }
+        throw failure;
+    }
+
+    private void fetchFrom(Mirror mirror) throws IOException, InterruptedException {
         String filename = info.getName();
-        GenericUrl downloadUrl = new GenericUrl(info.getUrl());
-        Path destination = binaryRoot.resolve(filename);
-        Path tmpDownloadTo = tmpRoot.resolve(filename);
-        download(downloadUrl, tmpDownloadTo);
-        checkIsRightSize(tmpDownloadTo);
-        Files.move(tmpDownloadTo, destination);
-        downloadListener.completedADownload();
-        return null;
+        PartialDownload partial = new PartialDownload(context.getTmpRoot().resolve(filename), info);
+        TransferMeter meter = new TransferMeter(context.getDownloadListener(), context.getMetrics(), transfer.getReported());
+
+        Digests digests = context.getPatcher().patch(info, partial, mirror);
+        if (digests != null)
+            meter.onDisk(info.getSize().inBytes());
+        if (digests == null)
+            digests = context.getJarRebuilder().rebuild(info, partial, mirror);
+        if (digests == null)
+            digests = context.getChunked().assemble(info, partial, mirror);
+
+        if (digests == null) {
+            AsyncHttpEngine engine = context.getEngine();
+            GenericUrl downloadUrl = new GenericUrl(mirror.resolve(info.getUrl()));
+            Encoding encoding = Codecs.choose(info);
+            if (encoding != null) {
+                digests = downloadEncoded(mirror.resolve(encoding.getUrl()), encoding, partial, meter);
+            } else if (context.getSegmentPolicy().shouldSegment(info)) {
+                new SegmentedDownload(info, downloadUrl, context.getRequestFactory(), partial, meter,
+                                      context.getSegmentPolicy(), context.getBandwidthLimiter()).run();
+                // Segments arrive out of order, so they can only be digested once reassembled
+                digests = null;
+            } else if (engine != null && engine.supports(downloadUrl.toURL())) {
+                // Commits itself once the response is in, without holding this thread
+                new AsyncDownload(info, mirror, downloadUrl.toURL(), engine, partial, meter, context.getCommitStage(),
+                                  context.getScheduler(), transfer, blockingFallback(mirror, partial, meter)).start();
+                return;
+            } else {
+                fetchBlocking(mirror, partial, meter);
+                return;
+            }
+        }
+
+        meter.finished();
+        context.getCommitStage().commit(info, partial, digests, transfer);
+    }
+
+    /**
+     * Fetches the file as a single stream on this thread, hedged with another mirror if it is slow.
+     */
+    private void fetchBlocking(Mirror mirror, PartialDownload partial, TransferMeter meter) throws IOException, InterruptedException {
+        Digests digests;
+        long hedgeDelay = context.getHedgePolicy().delayMillis(mirror, info.getSize().inBytes());
+        Mirror backup = hedgeDelay < 0 ? null : context.getMirrors().alternativeTo(mirror, info.getSize().inBytes());
+        if (backup == null) {
+            digests = new PlainDownload(info, mirror, context.getRequestFactory(), partial, meter,
+                                        context.getBandwidthLimiter()).run();
+        } else {
+            PartialDownload backupPartial = new PartialDownload(context.getTmpRoot().resolve(info.getName() + HEDGE_SUFFIX), info);
+            HedgedDownload hedged = new HedgedDownload(info, mirror, backup, context.getRequestFactory(), partial, backupPartial,
+                                                       meter, context.getBandwidthLimiter(), hedgeDelay, context.getHedgePolicy().getScheduler(),
+                                                       context.getMetrics());
+            digests = hedged.run();
+            partial = hedged.getWinner().getPartial();
+        }
+
+        meter.finished();
+        context.getCommitStage().commit(info, partial, digests, transfer);
     }
 
-    private void checkIsRightSize(Path tmpDownloadTo) throws IOException, RuntimeException {
-        MemoryUnit actualSize = new MemoryUnit(Files.size(tmpDownloadTo));
-        if (!actualSize.equals(info.getSize()))
-            throw new RuntimeException("Size of " + info.getName() + " does not match expected. " + "Expected: " + info.getSize() + " got: " + actualSize);
+    /**
+     * For an async download redirected somewhere the engine cannot follow.
+     */
+    private Callable<Void> blockingFallback(final Mirror mirror, final PartialDownload partial, final TransferMeter meter) {
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                try {
+                    fetchBlocking(mirror, partial, meter);
+                } catch (IOException ioe) {
+                    mirror.failed();
+                    throw ioe;
+                }
+                return null;
+            }
+        };
     }
 
-    private void download(GenericUrl downloadUrl, Path tmpDownloadTo) throws IOException {
-        HttpRequestFactory factory = new NetHttpTransport().createRequestFactory();
-        HttpRequest request = factory.buildGetRequest(downloadUrl);
-        request.setReadTimeout(3000);
-        try (final OutputStream os = new CountingFilterOutputStream(Files.newOutputStream(tmpDownloadTo, StandardOpenOption.CREATE_NEW), downloadListener)) {
-            HttpResponse response = request.execute();
-            response.download(os);
+    /**
+     * Downloads a compressed copy, decompressing it on the way to disk. Only the decompressed bytes
+     * are kept, so there is no resuming part way through.
+     */
+    private Digests downloadEncoded(String url, Encoding encoding, PartialDownload partial,
+                                    DownloadListener downloadListener) throws IOException {
+        HttpResponse response = RangeRequests.get(context.getRequestFactory(), new GenericUrl(url), 0, -1, null);
+        try {
+            Digests digests = new Digests();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream is = Codecs.decode(encoding.getEncoding(), new CountingFilterInputStream(context.getBandwidthLimiter().throttle(response.getContent()), downloadListener));
+                 OutputStream os = new CountingFilterOutputStream(digests.digesting(partial.start(null, false)), downloadListener, false)) {
+                int read;
+                while ((read = is.read(buffer)) != -1)
+                    os.write(buffer, 0, read);
+            }
+            return digests;
+        } catch (IOException ioe) {
+            partial.discard();
+            throw ioe;
+        } finally {
             response.disconnect();
         }
     }
-
 }
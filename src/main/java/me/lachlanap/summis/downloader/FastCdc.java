@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Splits files into content-defined chunks the way FastCDC does: a gear hash is rolled over the
+ * bytes and a chunk ends where its top bits are all zero, using a stricter mask before the
+ * average size and a looser one after it so sizes cluster around the average. Edits only move
+ * the boundaries near them, so most chunks of a changed file match ones already on disk.
+ * <p>
+ * Whatever publishes the manifest has to cut the same way: entry {@code i} of the gear table is
+ * the first 8 bytes (big-endian) of the SHA-1 of the single byte {@code i}, hashing starts
+ * {@code min} bytes into a chunk, and the masks keep the top {@code log2(avg) + 1} and
+ * {@code log2(avg) - 1} bits.
+ *
+ * @author Lachlan Phillips
+ */
+class FastCdc {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long[] GEAR = gearTable();
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    public FastCdc(int minSize, int averageSize, int maxSize) {
+        if (minSize <= 0 || minSize > averageSize || averageSize > maxSize)
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= avg <= max, not "
+                                               + minSize + ", " + averageSize + ", " + maxSize);
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+
+        int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+        this.strictMask = -1L << (64 - Math.min(63, bits + 1));
+        this.looseMask = -1L << (64 - Math.max(1, bits - 1));
+    }
+
+    private static long[] gearTable() {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            long[] table = new long[256];
+            for (int i = 0; i < table.length; i++) {
+                byte[] digest = sha1.digest(new byte[]{(byte) i});
+                long value = 0;
+                for (int b = 0; b < 8; b++)
+                    value = (value << 8) | (digest[b] & 0xff);
+                table[i] = value;
+            }
+            return table;
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("SHA-1 must be available", nsae);
+        }
+    }
+
+    /**
+     * @return the chunks of {@code file}, in order
+     */
+    public List<Cut> chunk(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            return chunk(is);
+        }
+    }
+
+    public List<Cut> chunk(InputStream in) throws IOException {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("SHA-1 must be available", nsae);
+        }
+
+        List<Cut> cuts = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long offset = 0;
+        int length = 0;
+        long hash = 0;
+
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                length++;
+                if (length > minSize) {
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                    long mask = length <= averageSize ? strictMask : looseMask;
+                    if ((hash & mask) != 0 && length < maxSize)
+                        continue;
+                } else if (length < maxSize) {
+                    continue;
+                }
+
+                sha1.update(buffer, start, i + 1 - start);
+                cuts.add(new Cut(offset, length, new String(Hex.encodeHex(sha1.digest()))));
+                offset += length;
+                length = 0;
+                hash = 0;
+                start = i + 1;
+            }
+            sha1.update(buffer, start, read - start);
+        }
+
+        if (length > 0)
+            cuts.add(new Cut(offset, length, new String(Hex.encodeHex(sha1.digest()))));
+        return cuts;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAverageSize() {
+        return averageSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public static class Cut {
+
+        private final long offset;
+        private final int length;
+        private final String sha1;
+
+        public Cut(long offset, int length, String sha1) {
+            this.offset = offset;
+            this.length = length;
+            this.sha1 = sha1;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getSHA1Digest() {
+            return sha1;
+        }
+
+        @Override
+        public String toString() {
+            return "Cut{offset=" + offset + ", length=" + length + ", sha1=" + sha1 + '}';
+        }
+    }
+}
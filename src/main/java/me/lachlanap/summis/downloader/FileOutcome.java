@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * What happened to one file in an update.
+ *
+ * @author Lachlan Phillips
+ */
+public class FileOutcome {
+
+    private final FileInfo info;
+    private final boolean installed;
+    private final int attempts;
+    private final Throwable failure;
+
+    public FileOutcome(FileInfo info, boolean installed, int attempts, Throwable failure) {
+        this.info = info;
+        this.installed = installed;
+        this.attempts = attempts;
+        this.failure = failure;
+    }
+
+    public FileInfo getInfo() {
+        return info;
+    }
+
+    public boolean isInstalled() {
+        return installed;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return why the last attempt failed, even if a retry went on to succeed; null if none did
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return info.getName() + ": " + (installed ? "installed" : "failed")
+               + " after " + attempts + (attempts == 1 ? " attempt" : " attempts")
+               + (failure != null ? " (" + failure + ")" : "");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * Tracks one file through as many attempts as it takes. A failed attempt is put back on the
+ * network queue after a backoff delay, without holding up any other file.
+ *
+ * @author Lachlan Phillips
+ */
+class FileTransfer {
+
+    private final FileInfo info;
+    private final RetryPolicy retryPolicy;
+    private final TransferScheduler scheduler;
+    private final CountDownLatch finished;
+    private final AtomicLong reported;
+
+    private Callable<Void> attempt;
+    private int attempts;
+    private boolean installed;
+    private Throwable lastFailure;
+
+    public FileTransfer(FileInfo info, RetryPolicy retryPolicy, TransferScheduler scheduler) {
+        this.info = info;
+        this.retryPolicy = retryPolicy;
+        this.scheduler = scheduler;
+        this.finished = new CountDownLatch(1);
+        this.reported = new AtomicLong();
+    }
+
+    /**
+     * @param attempt fetches the file, and eventually calls {@link #succeeded()} or
+     *                {@link #failed(Throwable)} if it does not throw
+     */
+    public void start(Callable<Void> attempt) {
+        this.attempt = attempt;
+        submit();
+    }
+
+    private synchronized void submit() {
+        attempts++;
+        runOnNetwork(attempt);
+    }
+
+    /**
+     * Carries on the current attempt with {@code step} on the network pool, such as when an attempt
+     * that was not holding a network thread turns out to need one after all.
+     */
+    public void continueWith(Callable<Void> step) {
+        runOnNetwork(step);
+    }
+
+    private void runOnNetwork(final Callable<Void> task) {
+        scheduler.submitNetwork(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    failed(e);
+                }
+                return null;
+            }
+        }, info.getSize().inBytes());
+    }
+
+    public synchronized void succeeded() {
+        installed = true;
+        finished.countDown();
+    }
+
+    public synchronized void failed(Throwable cause) {
+        lastFailure = cause;
+        if (!retryPolicy.shouldRetry(attempts, cause)) {
+            finished.countDown();
+            return;
+        }
+
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                submit();
+            }
+        }, retryPolicy.delayMillis(attempts));
+    }
+
+    public FileOutcome await() throws InterruptedException {
+        finished.await();
+        synchronized (this) {
+            return new FileOutcome(info, installed, attempts, lastFailure);
+        }
+    }
+
+    /**
+     * @return how much of the file has been reported as downloaded, over every attempt so far
+     */
+    public AtomicLong getReported() {
+        return reported;
+    }
+
+    public FileInfo getInfo() {
+        return info;
+    }
+}
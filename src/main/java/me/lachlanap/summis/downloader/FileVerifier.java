@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Checks files against their expected MD5 and SHA-1. Files are read through a reusable direct
+ * buffer; for larger ones MD5 is worked out on a helper thread while the calling thread does
+ * SHA-1 over the same buffer. Files are not memory mapped, as a mapping keeps the file open on
+ * Windows until it is garbage collected, and verified files are moved straight afterwards.
+ *
+ * @author Lachlan Phillips
+ */
+class FileVerifier {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest[]> DIGESTS = new ThreadLocal<MessageDigest[]>() {
+
+        @Override
+        protected MessageDigest[] initialValue() {
+            try {
+                return new MessageDigest[]{MessageDigest.getInstance("MD5"), MessageDigest.getInstance("SHA-1")};
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new RuntimeException("MD5 and SHA-1 must be available", nsae);
+            }
+        }
+    };
+
+    private final ExecutorService helper;
+
+    /**
+     * @param helper runs the MD5 half of large files; it must not be the pool verifications
+     *               themselves run on, or they could end up waiting on each other
+     */
+    public FileVerifier(ExecutorService helper) {
+        this.helper = helper;
+    }
+
+    public boolean matches(Path file, FileInfo info) throws IOException, InterruptedException {
+        byte[] expectedMD5 = decode(info.getMD5Digest());
+        byte[] expectedSHA1 = decode(info.getSHA1Digest());
+        if (expectedMD5 == null || expectedSHA1 == null)
+            return false;
+
+        byte[][] actual = digest(file);
+        return MessageDigest.isEqual(actual[0], expectedMD5) && MessageDigest.isEqual(actual[1], expectedSHA1);
+    }
+
+    /**
+     * @return the raw MD5 and SHA-1 of a file, in that order
+     */
+    public byte[][] digest(Path file) throws IOException, InterruptedException {
+        MessageDigest[] digests = DIGESTS.get();
+        MessageDigest md5 = digests[0];
+        MessageDigest sha1 = digests[1];
+        md5.reset();
+        sha1.reset();
+
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            boolean parallel = channel.size() >= PARALLEL_THRESHOLD;
+
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                if (parallel) {
+                    update(file, buffer, md5, sha1);
+                } else {
+                    md5.update(buffer.duplicate());
+                    sha1.update(buffer);
+                }
+                buffer.clear();
+            }
+        }
+
+        return new byte[][]{md5.digest(), sha1.digest()};
+    }
+
+    private void update(Path file, ByteBuffer buffer, final MessageDigest md5, MessageDigest sha1) throws IOException, InterruptedException {
+        final ByteBuffer forMD5 = buffer.duplicate();
+        Future<Void> md5Done = helper.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                md5.update(forMD5);
+                return null;
+            }
+        });
+
+        sha1.update(buffer);
+        try {
+            md5Done.get();
+        } catch (ExecutionException ee) {
+            throw new IOException("Failed to digest " + file, ee.getCause());
+        } catch (InterruptedException ie) {
+            // The helper may still be using md5 and the buffer, so this thread must not reuse them
+            DIGESTS.remove();
+            BUFFERS.remove();
+            throw ie;
+        }
+    }
+
+    private static byte[] decode(String hex) {
+        try {
+            return Hex.decodeHex(hex.toCharArray());
+        } catch (DecoderException de) {
+            return null;
+        }
+    }
+}
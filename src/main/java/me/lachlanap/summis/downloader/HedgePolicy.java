@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import me.lachlanap.summis.transport.Mirror;
+
+/**
+ * Decides how long a download may run before a second copy is requested from another mirror.
+ *
+ * @author Lachlan Phillips
+ */
+class HedgePolicy {
+
+    private final double factor;
+    private final long minDelayMillis;
+    private final TransferScheduler scheduler;
+
+    /**
+     * @param factor how many times longer than expected a download may take; 0 turns hedging off
+     */
+    public HedgePolicy(double factor, long minDelayMillis, TransferScheduler scheduler) {
+        this.factor = factor;
+        this.minDelayMillis = minDelayMillis;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return how long to give {@code mirror} to deliver {@code bytes} before hedging, or -1 to
+     *         not hedge, as when nothing is known about how quick it is
+     */
+    public long delayMillis(Mirror mirror, long bytes) {
+        double expected = mirror.estimateMillis(bytes);
+        if (factor <= 0 || Double.isInfinite(expected))
+            return -1;
+        return Math.max(minDelayMillis, (long) (factor * expected));
+    }
+
+    public TransferScheduler getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.HttpRequestFactory;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.Mirror;
+
+/**
+ * Races a download against a second copy from another mirror, started only if the first is still
+ * going long after it should have finished. Whichever finishes first wins and the other is
+ * aborted; only the winner counts towards progress on disk.
+ *
+ * @author Lachlan Phillips
+ */
+class HedgedDownload {
+
+    private final FileInfo info;
+    private final PlainDownload primary;
+    private final PlainDownload backup;
+    private final TransferMeter downloadListener;
+    private final long delayMillis;
+    private final TransferScheduler scheduler;
+    private final Metrics metrics;
+
+    private PlainDownload winner;
+    private boolean primaryFailed;
+    private Future<Digests> backupResult;
+
+    public HedgedDownload(FileInfo info, Mirror primaryMirror, Mirror backupMirror, HttpRequestFactory requestFactory,
+                          PartialDownload partial, PartialDownload backupPartial,
+                          TransferMeter downloadListener, BandwidthLimiter bandwidthLimiter,
+                          long delayMillis, TransferScheduler scheduler, Metrics metrics) {
+        this.info = info;
+        this.downloadListener = downloadListener;
+        this.primary = new PlainDownload(info, primaryMirror, requestFactory, partial, downloadListener, bandwidthLimiter);
+        this.backup = new PlainDownload(info, backupMirror, requestFactory, backupPartial,
+                                        new TransferMeter(new ReceivedOnly(downloadListener), metrics), bandwidthLimiter);
+        this.delayMillis = delayMillis;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the digests of the winning copy, which is in {@link #getWinner()}'s partial file
+     */
+    public Digests run() throws IOException, InterruptedException {
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                startBackup();
+            }
+        }, delayMillis);
+
+        Digests digests;
+        try {
+            digests = primary.run();
+        } catch (IOException ioe) {
+            Future<Digests> racing = givenUp();
+            if (racing == null)
+                throw ioe;
+            return awaitBackup(racing, ioe);
+        }
+
+        if (finish(primary))
+            return digests;
+        // The backup got there in between
+        return awaitBackup(backupResult, null);
+    }
+
+    private synchronized void startBackup() {
+        if (winner != null || primaryFailed)
+            return;
+
+        metrics.counter("download.hedges").increment();
+        backupResult = scheduler.getSegmentExecutor().submit(new Callable<Digests>() {
+
+            @Override
+            public Digests call() throws IOException {
+                try {
+                    Digests digests = backup.run();
+                    if (!finish(backup))
+                        throw new IOException("The first copy of " + info.getName() + " finished first");
+                    return digests;
+                } catch (IOException ioe) {
+                    if (!backup.isAborted())
+                        backup.getMirror().failed();
+                    backup.getPartial().discard();
+                    throw ioe;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the backup to wait on now that the primary has failed, or null if there is none
+     */
+    private synchronized Future<Digests> givenUp() {
+        primaryFailed = true;
+        return backupResult;
+    }
+
+    private synchronized boolean finish(PlainDownload download) {
+        if (winner != null)
+            return false;
+
+        winner = download;
+        (download == primary ? backup : primary).abort();
+        return true;
+    }
+
+    private Digests awaitBackup(Future<Digests> racing, IOException primaryFailure) throws IOException, InterruptedException {
+        Digests digests;
+        try {
+            digests = racing.get();
+        } catch (ExecutionException ee) {
+            if (primaryFailure != null)
+                throw primaryFailure;
+            throw new IOException("Backup copy of " + info.getName() + " failed", ee.getCause());
+        }
+
+        // Stalling badly enough to be beaten is as good as failing
+        primary.getMirror().failed();
+        primary.getPartial().discard();
+        downloadListener.onDisk(info.getSize().inBytes());
+        return digests;
+    }
+
+    public synchronized PlainDownload getWinner() {
+        return winner;
+    }
+
+    /**
+     * Only passes on network traffic, since the copy may never be used.
+     */
+    private static class ReceivedOnly implements DownloadListener {
+
+        private final DownloadListener listener;
+
+        public ReceivedOnly(DownloadListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void startingDownload(int numberOfFiles, MemoryUnit totalSize) {
+        }
+
+        @Override
+        public void downloadedSome(MemoryUnit amount) {
+        }
+
+        @Override
+        public void receivedSome(MemoryUnit amount) {
+            listener.receivedSome(amount);
+        }
+
+        @Override
+        public void completedADownload() {
+        }
+
+        @Override
+        public void startingVerify(int numberOfFiles) {
+        }
+
+        @Override
+        public void completedAVerify() {
+        }
+    }
+}
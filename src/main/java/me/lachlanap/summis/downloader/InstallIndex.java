@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.FileSet;
+
+/**
+ * Remembers the digests of installed files along with their size, modification time and file
+ * key, so a file whose metadata has not changed since it was last checked need not be read again.
+ *
+ * @author Lachlan Phillips
+ */
+class InstallIndex {
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path indexFile;
+    private final Path binaryRoot;
+    private final Map<String, Stamp> entries;
+    private boolean dirty;
+
+    public InstallIndex(Path indexFile, Path binaryRoot) {
+        this.indexFile = indexFile;
+        this.binaryRoot = binaryRoot;
+        this.entries = new HashMap<>();
+        this.dirty = false;
+
+        load();
+    }
+
+    /**
+     * @return whether the installed copy of {@code info} was verified before and has not been
+     * touched since
+     */
+    public boolean isVerified(FileInfo info) {
+        Stamp entry;
+        synchronized (this) {
+            entry = entries.get(info.getName());
+        }
+        if (entry == null || !entry.hasDigestsOf(info))
+            return false;
+
+        try {
+            return entry.sameFile(Stamp.of(binaryRoot.resolve(info.getName()), info));
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the SHA-1 last verified for what was installed as {@code name}, if {@code file} is
+     * that same copy and has not been touched since; otherwise null
+     */
+    public String verifiedSHA1(String name, Path file) {
+        Stamp entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        if (entry == null)
+            return null;
+
+        try {
+            return entry.sameFile(Stamp.of(file, entry.md5, entry.sha1)) ? entry.sha1 : null;
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the current metadata of the installed copy of {@code info}, to pass to
+     * {@link #verified(FileInfo, Stamp)} once its contents have been checked
+     */
+    public Stamp stamp(FileInfo info) throws IOException {
+        return Stamp.of(binaryRoot.resolve(info.getName()), info);
+    }
+
+    /**
+     * Records a file as verified, unless it changed after {@code before} was taken.
+     */
+    public void verified(FileInfo info, Stamp before) throws IOException {
+        Stamp now = Stamp.of(binaryRoot.resolve(info.getName()), info);
+        if (!before.sameFile(now))
+            return;
+
+        synchronized (this) {
+            entries.put(info.getName(), now);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops entries for files that are no longer part of the install.
+     */
+    public synchronized void retain(FileSet fileSet) {
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+            if (fileSet.getByName(it.next()) == null) {
+                it.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty)
+            return;
+
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Stamp> entry : entries.entrySet())
+                    writer.println(entry.getKey() + SEPARATOR + entry.getValue());
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile))
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length != 6)
+                    continue;
+
+                try {
+                    entries.put(parts[0], new Stamp(Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                                                    parts[3], parts[4], parts[5]));
+                } catch (NumberFormatException nfe) {
+                    // A damaged line just means that file gets hashed again
+                }
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            entries.clear();
+        }
+    }
+
+    static class Stamp {
+
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final String md5;
+        private final String sha1;
+
+        public Stamp(long size, long modified, String fileKey, String md5, String sha1) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.md5 = md5;
+            this.sha1 = sha1;
+        }
+
+        public static Stamp of(Path file, FileInfo info) throws IOException {
+            return of(file, info.getMD5Digest(), info.getSHA1Digest());
+        }
+
+        private static Stamp of(Path file, String md5, String sha1) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Stamp(attrs.size(), attrs.lastModifiedTime().toMillis(), String.valueOf(attrs.fileKey()),
+                             md5, sha1);
+        }
+
+        public boolean sameFile(Stamp other) {
+            return size == other.size && modified == other.modified && fileKey.equals(other.fileKey);
+        }
+
+        public boolean hasDigestsOf(FileInfo info) {
+            return size == info.getSize().inBytes()
+                   && md5.equals(info.getMD5Digest()) && sha1.equals(info.getSHA1Digest());
+        }
+
+        @Override
+        public String toString() {
+            return size + SEPARATOR + modified + SEPARATOR + fileKey + SEPARATOR + md5 + SEPARATOR + sha1;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.JarEntryInfo;
+import me.lachlanap.summis.UpdateInformation.JarEntryList;
+import me.lachlanap.summis.transport.Mirror;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Rebuilds jars that the manifest lists entry by entry, copying the entries that have not changed
+ * straight out of the installed jar and downloading the rest. Entries are never recompressed, so
+ * the jar comes out byte for byte the same as the published one as long as that was laid out the
+ * same way.
+ * <p>
+ * Whatever publishes the manifest has to lay jars out the way {@link java.util.zip.ZipOutputStream}
+ * does when every entry's method, time, sizes and CRC are set before it is put: entries in manifest
+ * order with no extra fields, comments or data descriptors, names flagged as UTF-8, and version 20
+ * (10 for stored entries) both made by and needed. A jar repacked like that from any other keeps
+ * the same contents.
+ *
+ * @author Lachlan Phillips
+ */
+class JarRebuilder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_RECORD = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int DEFLATED = 8;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int VERSION = 20;
+    private static final int VERSION_STORED = 10;
+
+    private final Path currentGeneration;
+    private final HttpRequestFactory requestFactory;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final DownloadListener downloadListener;
+
+    /**
+     * @param currentGeneration where the installed files are, or null if there are none
+     */
+    public JarRebuilder(Path currentGeneration, HttpRequestFactory requestFactory,
+                        BandwidthLimiter bandwidthLimiter, DownloadListener downloadListener) {
+        this.currentGeneration = currentGeneration;
+        this.requestFactory = requestFactory;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.downloadListener = downloadListener;
+    }
+
+    /**
+     * Writes a jar into {@code partial}, fetching changed entries from {@code mirror}.
+     *
+     * @return the digests of the rebuilt jar, or null if it is not listed by entry, the installed
+     *         copy shares no entries with it, or its layout is not one this can reproduce
+     */
+    public Digests rebuild(FileInfo info, PartialDownload partial, Mirror mirror) throws IOException {
+        JarEntryList jar = info.getJarEntries();
+        if (jar == null || currentGeneration == null)
+            return null;
+
+        Path installed = currentGeneration.resolve(info.getName());
+        if (!Files.isRegularFile(installed))
+            return null;
+
+        List<JarEntryInfo> entries = jar.getEntries();
+        List<byte[]> names = encodeNames(entries);
+        if (layoutSize(entries, names) != info.getSize().inBytes()) {
+            System.out.println("Listed entries of " + info.getName() + " do not add up to it, downloading it whole");
+            return null;
+        }
+
+        try (FileChannel installedChannel = FileChannel.open(installed, StandardOpenOption.READ)) {
+            List<StoredEntry> reused = findReusable(installedChannel, entries);
+            if (reused == null)
+                return null;
+
+            Digests digests = new Digests();
+            try (OutputStream os = new CountingFilterOutputStream(digests.digesting(partial.start(null, false)), downloadListener, false)) {
+                write(os, jar, names, reused, installedChannel, mirror);
+            } catch (IOException ioe) {
+                partial.discard();
+                throw ioe;
+            }
+            return digests;
+        }
+    }
+
+    private static List<byte[]> encodeNames(List<JarEntryInfo> entries) {
+        List<byte[]> names = new ArrayList<>();
+        for (JarEntryInfo entry : entries)
+            names.add(entry.getName().getBytes(StandardCharsets.UTF_8));
+        return names;
+    }
+
+    /**
+     * @return how big the jar comes out, or -1 if it needs zip64, which this does not write
+     */
+    private static long layoutSize(List<JarEntryInfo> entries, List<byte[]> names) {
+        if (entries.size() > 0xffff)
+            return -1;
+
+        long entriesSize = 0;
+        long directorySize = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            JarEntryInfo entry = entries.get(i);
+            if (entry.getSize() >= 0xffffffffL || entry.getCompressedSize() >= 0xffffffffL)
+                return -1;
+            entriesSize += LOCAL_HEADER_SIZE + names.get(i).length + entry.getCompressedSize();
+            directorySize += CENTRAL_HEADER_SIZE + names.get(i).length;
+        }
+
+        if (entriesSize + directorySize >= 0xffffffffL)
+            return -1;
+        return entriesSize + directorySize + END_RECORD_SIZE;
+    }
+
+    /**
+     * @return where each listed entry's stored bytes are in the installed jar, null for entries
+     *         that have to be downloaded; or null if none can be reused
+     */
+    private static List<StoredEntry> findReusable(FileChannel installed, List<JarEntryInfo> entries) throws IOException {
+        Map<String, List<StoredEntry>> candidates = new HashMap<>();
+        try {
+            for (StoredEntry stored : readDirectory(installed)) {
+                String key = stored.key();
+                if (!candidates.containsKey(key))
+                    candidates.put(key, new ArrayList<StoredEntry>());
+                candidates.get(key).add(stored);
+            }
+        } catch (IllegalArgumentException iae) {
+            System.out.println("Could not read the installed jar: " + iae.getMessage());
+            return null;
+        }
+
+        // Only entries that could match are hashed, so unchanged jars are not read end to end twice
+        List<StoredEntry> reused = new ArrayList<>();
+        boolean anyReused = false;
+        for (JarEntryInfo entry : entries) {
+            StoredEntry match = null;
+            List<StoredEntry> sameShape = candidates.get(key(entry.getMethod(), entry.getCrc(), entry.getCompressedSize()));
+            if (sameShape != null) {
+                for (StoredEntry stored : sameShape) {
+                    if (stored.sha1(installed).equalsIgnoreCase(entry.getSHA1Digest())) {
+                        match = stored;
+                        break;
+                    }
+                }
+            }
+            reused.add(match);
+            anyReused |= match != null;
+        }
+        return anyReused ? reused : null;
+    }
+
+    private static List<StoredEntry> readDirectory(FileChannel jar) throws IOException {
+        long size = jar.size();
+        int tailSize = (int) Math.min(size, END_RECORD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(jar, size - tailSize, tailSize);
+
+        int end = -1;
+        for (int i = tailSize - END_RECORD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_RECORD) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0)
+            throw new IllegalArgumentException("no end of central directory");
+
+        int count = tail.getShort(end + 10) & 0xffff;
+        long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || directoryOffset == 0xffffffffL || directoryOffset + directorySize > size)
+            throw new IllegalArgumentException("zip64 or damaged central directory");
+
+        ByteBuffer directory = read(jar, directoryOffset, (int) directorySize);
+        List<StoredEntry> entries = new ArrayList<>();
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            if (at + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(at) != CENTRAL_HEADER)
+                throw new IllegalArgumentException("bad central directory header");
+
+            int method = directory.getShort(at + 10) & 0xffff;
+            long crc = directory.getInt(at + 16) & 0xffffffffL;
+            long compressedSize = directory.getInt(at + 20) & 0xffffffffL;
+            int nameLength = directory.getShort(at + 28) & 0xffff;
+            int extraLength = directory.getShort(at + 30) & 0xffff;
+            int commentLength = directory.getShort(at + 32) & 0xffff;
+            long headerOffset = directory.getInt(at + 42) & 0xffffffffL;
+            if (at + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength > directory.limit())
+                throw new IllegalArgumentException("central directory entry runs past its end");
+
+            ByteBuffer local = read(jar, headerOffset, LOCAL_HEADER_SIZE);
+            if (local.getInt(0) != LOCAL_HEADER)
+                throw new IllegalArgumentException("bad local header");
+            long dataOffset = headerOffset + LOCAL_HEADER_SIZE
+                              + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+            if (dataOffset + compressedSize > size)
+                throw new IllegalArgumentException("entry runs past the end");
+
+            entries.add(new StoredEntry(method, crc, compressedSize, dataOffset));
+            at += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IllegalArgumentException("truncated");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void write(OutputStream os, JarEntryList jar, List<byte[]> names, List<StoredEntry> reused,
+                       FileChannel installed, Mirror mirror) throws IOException {
+        List<JarEntryInfo> entries = jar.getEntries();
+        long[] headerOffsets = new long[entries.size()];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long offset = 0;
+
+        for (int i = 0; i < entries.size(); i++) {
+            JarEntryInfo entry = entries.get(i);
+            byte[] name = names.get(i);
+            headerOffsets[i] = offset;
+
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(LOCAL_HEADER);
+            putEntryFields(header, entry, name);
+            header.putShort((short) 0);
+            header.put(name);
+            os.write(header.array());
+
+            StoredEntry stored = reused.get(i);
+            if (stored != null)
+                copy(Channels.newInputStream(installed.position(stored.dataOffset)), stored.compressedSize, os, buffer);
+            else
+                fetch(jar, entry, mirror, os, buffer);
+            offset += header.capacity() + entry.getCompressedSize();
+        }
+
+        long directoryOffset = offset;
+        for (int i = 0; i < entries.size(); i++) {
+            JarEntryInfo entry = entries.get(i);
+            byte[] name = names.get(i);
+
+            ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER);
+            header.putShort((short) versionOf(entry));
+            putEntryFields(header, entry, name);
+            header.putShort((short) 0); // extra
+            header.putShort((short) 0); // comment
+            header.putShort((short) 0); // disk
+            header.putShort((short) 0); // internal attributes
+            header.putInt(0);           // external attributes
+            header.putInt((int) headerOffsets[i]);
+            header.put(name);
+            os.write(header.array());
+            offset += header.capacity();
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(END_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_RECORD);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) entries.size());
+        end.putShort((short) entries.size());
+        end.putInt((int) (offset - directoryOffset));
+        end.putInt((int) directoryOffset);
+        end.putShort((short) 0);
+        os.write(end.array());
+    }
+
+    /**
+     * Puts the fields local and central headers share, from version needed to the name length.
+     */
+    private static void putEntryFields(ByteBuffer header, JarEntryInfo entry, byte[] name) {
+        header.putShort((short) versionOf(entry));
+        header.putShort((short) UTF8_FLAG);
+        header.putShort((short) entry.getMethod());
+        header.putInt((int) entry.getDosTime());
+        header.putInt((int) entry.getCrc());
+        header.putInt((int) entry.getCompressedSize());
+        header.putInt((int) entry.getSize());
+        header.putShort((short) name.length);
+    }
+
+    private static int versionOf(JarEntryInfo entry) {
+        return entry.getMethod() == DEFLATED ? VERSION : VERSION_STORED;
+    }
+
+    private void fetch(JarEntryList jar, JarEntryInfo entry, Mirror mirror, OutputStream os, byte[] buffer) throws IOException {
+        MessageDigest sha1 = newSHA1();
+        HttpResponse response = RangeRequests.get(requestFactory, new GenericUrl(mirror.resolve(jar.getUrl(entry))), 0, -1, null);
+        try (InputStream is = new CountingFilterInputStream(bandwidthLimiter.throttle(response.getContent()), downloadListener)) {
+            long remaining = entry.getCompressedSize();
+            int read;
+            while (remaining > 0 && (read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                sha1.update(buffer, 0, read);
+                os.write(buffer, 0, read);
+                remaining -= read;
+            }
+            if (remaining > 0 || is.read() != -1)
+                throw new IOException("Entry " + entry.getName() + " was the wrong size when downloaded");
+        } finally {
+            response.disconnect();
+        }
+
+        if (!new String(Hex.encodeHex(sha1.digest())).equalsIgnoreCase(entry.getSHA1Digest()))
+            throw new IOException("Entry " + entry.getName() + " was corrupt when downloaded");
+    }
+
+    private static void copy(InputStream in, long length, OutputStream out, byte[] buffer) throws IOException {
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        if (remaining > 0)
+            throw new IOException("Installed jar ended " + remaining + " bytes early");
+    }
+
+    private static MessageDigest newSHA1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("SHA-1 must be available", nsae);
+        }
+    }
+
+    private static String key(int method, long crc, long compressedSize) {
+        return method + ":" + crc + ":" + compressedSize;
+    }
+
+    private static class StoredEntry {
+
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long dataOffset;
+        private String sha1;
+
+        public StoredEntry(int method, long crc, long compressedSize, long dataOffset) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.dataOffset = dataOffset;
+        }
+
+        public String key() {
+            return JarRebuilder.key(method, crc, compressedSize);
+        }
+
+        /**
+         * @return the SHA-1 of the stored bytes, read the first time it is asked for
+         */
+        public String sha1(FileChannel jar) throws IOException {
+            if (sha1 == null) {
+                MessageDigest digest = newSHA1();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                InputStream in = Channels.newInputStream(jar.position(dataOffset));
+                long remaining = compressedSize;
+                int read;
+                while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    digest.update(buffer, 0, read);
+                    remaining -= read;
+                }
+                sha1 = new String(Hex.encodeHex(digest.digest()));
+            }
+            return sha1;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * A file in the tmp directory along with a sidecar recording what it is meant to become, so an
+ * interrupted download can be picked up where it left off on the next run.
+ *
+ * @author Lachlan Phillips
+ */
+class PartialDownload {
+
+    private static final String SIDECAR_SUFFIX = ".partial";
+
+    private final Path file;
+    private final Path sidecar;
+    private final FileInfo info;
+    private String validator;
+    private List<Segment> segments;
+
+    public PartialDownload(Path file, FileInfo info) {
+        this.file = file;
+        this.sidecar = file.resolveSibling(file.getFileName() + SIDECAR_SUFFIX);
+        this.info = info;
+        this.validator = null;
+        this.segments = null;
+    }
+
+    /**
+     * @return how many bytes are already on disk for this file, or 0 if there is nothing usable
+     */
+    public long resumableFrom() throws IOException {
+        if (!Files.exists(file) || !Files.exists(sidecar) || !loadSidecar() || segments != null) {
+            discard();
+            return 0;
+        }
+
+        long existing = Files.size(file);
+        if (existing > info.getSize().inBytes()) {
+            discard();
+            return 0;
+        }
+        return existing;
+    }
+
+    private boolean loadSidecar() {
+        try (BufferedReader reader = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8)) {
+            String sizeString = reader.readLine();
+            String md5 = reader.readLine();
+            String sha1 = reader.readLine();
+            String validatorString = reader.readLine();
+            String segmentsString = reader.readLine();
+
+            if (sizeString == null || md5 == null || sha1 == null)
+                return false;
+            if (Long.parseLong(sizeString) != info.getSize().inBytes()
+                || !md5.equals(info.getMD5Digest())
+                || !sha1.equals(info.getSHA1Digest()))
+                return false;
+
+            validator = (validatorString == null || validatorString.isEmpty()) ? null : validatorString;
+            segments = (segmentsString == null || segmentsString.isEmpty()) ? null : Segment.parseAll(segmentsString);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the ETag or Last-Modified the server sent when this file was started, if any
+     */
+    public String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Picks up the segments of an earlier segmented download, or preallocates the file and splits
+     * it into {@code count} fresh segments.
+     */
+    public List<Segment> resumableSegments(int count) throws IOException {
+        long size = info.getSize().inBytes();
+        List<Segment> fresh = Segment.split(size, count);
+        if (Files.exists(file) && Files.exists(sidecar) && loadSidecar()
+            && Segment.sameRanges(segments, fresh) && Files.size(file) == size)
+            return segments;
+
+        discard();
+        segments = fresh;
+        try (RandomAccessFile preallocated = new RandomAccessFile(file.toFile(), "rw")) {
+            preallocated.setLength(size);
+        }
+        writeSidecar();
+        return segments;
+    }
+
+    public FileChannel openSegmented() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    public synchronized void recordValidator(String newValidator) throws IOException {
+        validator = newValidator;
+        writeSidecar();
+    }
+
+    /**
+     * Writes out how far each segment has got.
+     */
+    public synchronized void saveProgress() throws IOException {
+        writeSidecar();
+    }
+
+    public synchronized OutputStream start(String newValidator, boolean append) throws IOException {
+        validator = newValidator;
+        segments = null;
+        writeSidecar();
+
+        if (append)
+            return Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        else
+            return Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeSidecar() throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(sidecar, StandardCharsets.UTF_8))) {
+            writer.println(info.getSize().inBytes());
+            writer.println(info.getMD5Digest());
+            writer.println(info.getSHA1Digest());
+            writer.println(validator == null ? "" : validator);
+            if (segments != null)
+                writer.println(Segment.formatAll(segments));
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Forgets the sidecar once the file has been moved out of tmp.
+     */
+    public void completed() throws IOException {
+        Files.deleteIfExists(sidecar);
+    }
+
+    public synchronized void discard() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(sidecar);
+        validator = null;
+        segments = null;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.Patch;
+import me.lachlanap.summis.transport.Mirror;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Builds new versions of files from the installed ones using patches offered in the manifest.
+ * Anything going wrong along the way just means the file is downloaded whole instead.
+ *
+ * @author Lachlan Phillips
+ */
+class Patcher {
+
+    private static final String PATCH_SUFFIX = ".patch";
+
+    private final Path currentGeneration;
+    private final Path tmpRoot;
+    private final HttpRequestFactory requestFactory;
+    private final FileVerifier verifier;
+    private final InstallIndex installIndex;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final DownloadListener downloadListener;
+
+    /**
+     * @param currentGeneration where the installed files are, or null if there are none
+     * @param installIndex      knows the digests of installed files that have not changed since
+     *                          they were last verified, so those need not be hashed again
+     */
+    public Patcher(Path currentGeneration, Path tmpRoot, HttpRequestFactory requestFactory,
+                   FileVerifier verifier, InstallIndex installIndex,
+                   BandwidthLimiter bandwidthLimiter, DownloadListener downloadListener) {
+        this.currentGeneration = currentGeneration;
+        this.tmpRoot = tmpRoot;
+        this.requestFactory = requestFactory;
+        this.verifier = verifier;
+        this.installIndex = installIndex;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.downloadListener = downloadListener;
+    }
+
+    /**
+     * Writes the new version of a file into {@code partial} by patching the installed copy, with
+     * the patch fetched from {@code mirror}.
+     *
+     * @return the digests of the patched file, or null if it could not be patched
+     */
+    public Digests patch(FileInfo info, PartialDownload partial, Mirror mirror) throws InterruptedException {
+        if (currentGeneration == null || info.getPatches().isEmpty())
+            return null;
+
+        Path installed = currentGeneration.resolve(info.getName());
+        Path patchFile = tmpRoot.resolve(info.getName() + PATCH_SUFFIX);
+        try {
+            if (!Files.isRegularFile(installed))
+                return null;
+
+            Patch patch = findPatch(info, installedSHA1(info, installed));
+            if (patch == null)
+                return null;
+
+            download(mirror.resolve(patch.getUrl()), patchFile);
+
+            Digests digests = new Digests();
+            try (OutputStream os = digests.digesting(partial.start(null, false))) {
+                BsPatch.apply(installed, patchFile, os);
+            }
+
+            if (Files.size(partial.getFile()) != info.getSize().inBytes() || !digests.matches(info)) {
+                System.out.println("Patched " + info.getName() + " does not match, downloading it whole");
+                partial.discard();
+                return null;
+            }
+            return digests;
+        } catch (IOException ioe) {
+            System.out.println("Failed to patch " + info.getName() + ", downloading it whole: " + ioe);
+            discard(partial);
+            return null;
+        } finally {
+            try {
+                Files.deleteIfExists(patchFile);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    private String installedSHA1(FileInfo info, Path installed) throws IOException, InterruptedException {
+        String sha1 = installIndex.verifiedSHA1(info.getName(), installed);
+        if (sha1 != null)
+            return sha1;
+        return new String(Hex.encodeHex(verifier.digest(installed)[1]));
+    }
+
+    private static Patch findPatch(FileInfo info, String installedSHA1) {
+        for (Patch patch : info.getPatches())
+            if (BsPatch.FORMAT.equals(patch.getFormat()) && installedSHA1.equalsIgnoreCase(patch.getFromSHA1Digest()))
+                return patch;
+        return null;
+    }
+
+    private void download(String url, Path patchFile) throws IOException {
+        HttpResponse response = RangeRequests.get(requestFactory, new GenericUrl(url), 0, -1, null);
+        try (InputStream is = new CountingFilterInputStream(bandwidthLimiter.throttle(response.getContent()), downloadListener)) {
+            Files.copy(is, patchFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    private static void discard(PartialDownload partial) {
+        try {
+            partial.discard();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.transport.Mirror;
+
+/**
+ * Fetches a file from one mirror as a single stream, resuming from whatever an earlier attempt
+ * left in tmp. It can be aborted from another thread, such as when a hedged copy wins.
+ *
+ * @author Lachlan Phillips
+ */
+class PlainDownload {
+
+    private final FileInfo info;
+    private final Mirror mirror;
+    private final GenericUrl url;
+    private final HttpRequestFactory requestFactory;
+    private final PartialDownload partial;
+    private final TransferMeter downloadListener;
+    private final BandwidthLimiter bandwidthLimiter;
+
+    private volatile boolean aborted;
+    private volatile HttpResponse response;
+
+    public PlainDownload(FileInfo info, Mirror mirror, HttpRequestFactory requestFactory, PartialDownload partial,
+                         TransferMeter downloadListener, BandwidthLimiter bandwidthLimiter) {
+        this.info = info;
+        this.mirror = mirror;
+        this.url = new GenericUrl(mirror.resolve(info.getUrl()));
+        this.requestFactory = requestFactory;
+        this.partial = partial;
+        this.downloadListener = downloadListener;
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    /**
+     * @return the digests of the file as written to {@link #getPartial()}
+     */
+    public Digests run() throws IOException {
+        long offset = partial.resumableFrom();
+        if (offset == info.getSize().inBytes()) {
+            downloadListener.onDisk(offset);
+            return Digests.of(partial.getFile());
+        }
+
+        long sent = System.nanoTime();
+        try {
+            response = RangeRequests.get(requestFactory, url, offset, -1, partial.getValidator());
+        } catch (HttpResponseException hre) {
+            if (offset == 0 || hre.getStatusCode() != RangeRequests.HTTP_RANGE_NOT_SATISFIABLE)
+                throw hre;
+
+            partial.discard();
+            offset = 0;
+            response = RangeRequests.get(requestFactory, url, offset, -1, null);
+        }
+        long responded = System.nanoTime();
+        mirror.responded((responded - sent) / 1000000);
+
+        try {
+            checkAborted();
+
+            // A server that ignores Range, or whose copy changed since (If-Range), sends it all again
+            boolean resuming = offset > 0 && RangeRequests.isRangeFrom(response, offset);
+            Digests digests;
+            if (resuming) {
+                digests = Digests.ofPrefix(partial.getFile(), offset);
+                downloadListener.onDisk(offset);
+            } else {
+                digests = new Digests();
+            }
+
+            try (final OutputStream os = new CountingFilterOutputStream(bandwidthLimiter.throttle(digests.digesting(partial.start(RangeRequests.validatorOf(response), resuming))), downloadListener)) {
+                RangeRequests.download(response, os);
+            }
+            // Disconnecting can look like the body just ended
+            checkAborted();
+
+            mirror.transferred(Files.size(partial.getFile()) - (resuming ? offset : 0), System.nanoTime() - responded);
+            return digests;
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    private void checkAborted() throws IOException {
+        if (aborted)
+            throw new IOException("Download of " + info.getName() + " from " + mirror.getAddress() + " was aborted");
+    }
+
+    /**
+     * Makes {@link #run()} give up as soon as it can, leaving the partial file behind.
+     */
+    public void abort() {
+        aborted = true;
+        HttpResponse current = response;
+        if (current != null) {
+            try {
+                current.disconnect();
+            } catch (IOException ioe) {
+                // It was being thrown away anyway
+            }
+        }
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public Mirror getMirror() {
+        return mirror;
+    }
+
+    public PartialDownload getPartial() {
+        return partial;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+final class RangeRequests {
+
+    static final int HTTP_PARTIAL_CONTENT = 206;
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final int READ_TIMEOUT = 3000;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private RangeRequests() {
+    }
+
+    /**
+     * Requests bytes {@code [from, to)} of a file; {@code to} of -1 means through to the end, and a
+     * {@code from} of 0 with no end requests the whole file.
+     */
+    static HttpResponse get(HttpRequestFactory requestFactory, GenericUrl url,
+                            long from, long to, String validator) throws IOException {
+        HttpRequest request = requestFactory.buildGetRequest(url);
+        request.setReadTimeout(READ_TIMEOUT);
+
+        // Byte ranges have to line up with the file on disk, not some compressed form of it
+        request.getHeaders().setAcceptEncoding("identity");
+        if (from > 0 || to >= 0) {
+            request.getHeaders().setRange("bytes=" + from + "-" + (to >= 0 ? String.valueOf(to - 1) : ""));
+            if (validator != null)
+                request.getHeaders().setIfRange(validator);
+        }
+
+        return request.execute();
+    }
+
+    /**
+     * Copies the body of {@code response} to {@code os}. A connection that closes before all of
+     * the Content-Length has come fails, rather than looking like the end of a shorter body, so
+     * that what did arrive can be resumed from.
+     */
+    static void download(HttpResponse response, OutputStream os) throws IOException {
+        Long expected = response.getHeaders().getContentLength();
+        long received = 0;
+        try (InputStream is = response.getContent()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+                received += read;
+            }
+        }
+
+        if (expected != null && received < expected)
+            throw new EOFException("Connection closed after " + received + " of " + expected + " bytes");
+    }
+
+    /**
+     * @return whether the response is a 206 whose Content-Range starts at {@code from}
+     */
+    static boolean isRangeFrom(HttpResponse response, long from) {
+        return isRangeFrom(response.getStatusCode(), response.getHeaders().getContentRange(), from);
+    }
+
+    static boolean isRangeFrom(int statusCode, String contentRange, long from) {
+        if (statusCode != HTTP_PARTIAL_CONTENT)
+            return false;
+
+        // Content-Range: bytes <first>-<last>/<total>
+        if (contentRange == null || !contentRange.startsWith("bytes "))
+            return false;
+
+        int dash = contentRange.indexOf('-');
+        if (dash < 0)
+            return false;
+
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim()) == from;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    static String validatorOf(HttpResponse response) {
+        return validatorOf(response.getHeaders().getETag(), response.getHeaders().getLastModified());
+    }
+
+    static String validatorOf(String etag, String lastModified) {
+        // If-Range only accepts strong validators
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        return lastModified;
+    }
+
+    /**
+     * @return the headers {@link #get} would send, for clients other than the blocking transport
+     */
+    static Map<String, String> headers(long from, long to, String validator) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept-Encoding", "identity");
+        if (from > 0 || to >= 0) {
+            headers.put("Range", "bytes=" + from + "-" + (to >= 0 ? String.valueOf(to - 1) : ""));
+            if (validator != null)
+                headers.put("If-Range", validator);
+        }
+        return headers;
+    }
+}
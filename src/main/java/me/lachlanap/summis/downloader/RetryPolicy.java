@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.HttpResponseException;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * How often and how far apart a file's failed transfers are tried again. Delays grow
+ * exponentially with each attempt and are picked at random up to that bound, so files that failed
+ * together don't all come back at once.
+ *
+ * @author Lachlan Phillips
+ */
+class RetryPolicy {
+
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = new Random();
+    }
+
+    /**
+     * @param attempts how many times the file has been tried so far
+     */
+    public boolean shouldRetry(int attempts, Throwable failure) {
+        return attempts < maxAttempts && isTransient(failure);
+    }
+
+    /**
+     * @param attempts how many times the file has been tried so far
+     */
+    public long delayMillis(int attempts) {
+        long bound = baseDelayMillis << Math.min(attempts - 1, 20);
+        bound = Math.min(bound, maxDelayMillis);
+        synchronized (random) {
+            return bound > 0 ? (long) (random.nextDouble() * bound) : 0;
+        }
+    }
+
+    /**
+     * Server errors, dropped connections and corrupt downloads may well go away on their own;
+     * anything else, like a 404, will just fail the same way again.
+     */
+    static boolean isTransient(Throwable failure) {
+        if (failure instanceof HttpResponseException) {
+            int status = ((HttpResponseException) failure).getStatusCode();
+            return status >= 500 || status == HTTP_REQUEST_TIMEOUT || status == HTTP_TOO_MANY_REQUESTS;
+        }
+        return failure instanceof IOException;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range {@code [start, end)} of a file, and how far through it the download has got.
+ *
+ * @author Lachlan Phillips
+ */
+class Segment {
+
+    private final long start;
+    private final long end;
+    private volatile long next;
+
+    public Segment(long start, long end, long next) {
+        if (start < 0 || end < start || next < start || next > end)
+            throw new IllegalArgumentException("Invalid segment: " + start + "-" + end + " at " + next);
+        this.start = start;
+        this.end = end;
+        this.next = next;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getNext() {
+        return next;
+    }
+
+    public void advance(long amount) {
+        if (next + amount > end)
+            throw new IllegalStateException("Advanced past the end of segment " + this);
+        next += amount;
+    }
+
+    public long getDone() {
+        return next - start;
+    }
+
+    public long getRemaining() {
+        return end - next;
+    }
+
+    public boolean isComplete() {
+        return next == end;
+    }
+
+    public static List<Segment> split(long size, int count) {
+        List<Segment> segments = new ArrayList<>();
+        long segmentSize = (size + count - 1) / count;
+        for (long start = 0; start < size; start += segmentSize) {
+            long end = Math.min(size, start + segmentSize);
+            segments.add(new Segment(start, end, start));
+        }
+        return segments;
+    }
+
+    public static boolean sameRanges(List<Segment> a, List<Segment> b) {
+        if (a == null || b == null || a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++)
+            if (a.get(i).start != b.get(i).start || a.get(i).end != b.get(i).end)
+                return false;
+        return true;
+    }
+
+    public static String formatAll(List<Segment> segments) {
+        StringBuilder builder = new StringBuilder();
+        for (Segment segment : segments) {
+            if (builder.length() > 0)
+                builder.append(';');
+            builder.append(segment.start).append(',').append(segment.end).append(',').append(segment.next);
+        }
+        return builder.toString();
+    }
+
+    public static List<Segment> parseAll(String string) {
+        List<Segment> segments = new ArrayList<>();
+        for (String piece : string.split(";")) {
+            String[] numbers = piece.split(",");
+            if (numbers.length != 3)
+                throw new IllegalArgumentException("Malformed segment: " + piece);
+            segments.add(new Segment(Long.parseLong(numbers[0]),
+                                     Long.parseLong(numbers[1]),
+                                     Long.parseLong(numbers[2])));
+        }
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{" + start + "-" + end + ", next=" + next + '}';
+    }
+}
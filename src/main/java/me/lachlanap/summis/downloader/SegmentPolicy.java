@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.concurrent.ExecutorService;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * Decides which files are big enough to be fetched as several byte ranges at once.
+ *
+ * @author Lachlan Phillips
+ */
+class SegmentPolicy {
+
+    private final MemoryUnit threshold;
+    private final int segmentCount;
+    private final ExecutorService executor;
+
+    public SegmentPolicy(MemoryUnit threshold, int segmentCount, ExecutorService executor) {
+        this.threshold = threshold;
+        this.segmentCount = segmentCount;
+        this.executor = executor;
+    }
+
+    public boolean shouldSegment(FileInfo info) {
+        return segmentCount > 1 && info.getSize().inBytes() >= threshold.inBytes();
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+
+/**
+ * Fetches one large file as several byte ranges over separate connections, each written at its
+ * own offset into a preallocated tmp file.
+ *
+ * @author Lachlan Phillips
+ */
+class SegmentedDownload {
+
+    private static final long SAVE_INTERVAL = 8 * 1024 * 1024;
+
+    private final FileInfo info;
+    private final GenericUrl url;
+    private final HttpRequestFactory requestFactory;
+    private final PartialDownload partial;
+    private final TransferMeter downloadListener;
+    private final SegmentPolicy policy;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final AtomicBoolean changedOnServer;
+
+    public SegmentedDownload(FileInfo info, GenericUrl url, HttpRequestFactory requestFactory,
+                             PartialDownload partial, TransferMeter downloadListener,
+                             SegmentPolicy policy, BandwidthLimiter bandwidthLimiter) {
+        this.info = info;
+        this.url = url;
+        this.requestFactory = requestFactory;
+        this.partial = partial;
+        this.downloadListener = downloadListener;
+        this.policy = policy;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.changedOnServer = new AtomicBoolean(false);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        List<Segment> segments = partial.resumableSegments(policy.getSegmentCount());
+
+        long alreadyDone = 0;
+        List<Segment> remaining = new ArrayList<>();
+        for (Segment segment : segments) {
+            alreadyDone += segment.getDone();
+            if (!segment.isComplete())
+                remaining.add(segment);
+        }
+
+        if (remaining.isEmpty()) {
+            downloadListener.onDisk(alreadyDone);
+            return;
+        }
+
+        // The first request doubles as a probe for whether the server honours ranges at all
+        Segment first = remaining.get(0);
+        HttpResponse probe = RangeRequests.get(requestFactory, url,
+                                               first.getNext(), first.getEnd(), partial.getValidator());
+        if (!RangeRequests.isRangeFrom(probe, first.getNext())) {
+            downloadWhole(probe);
+            return;
+        }
+
+        downloadListener.onDisk(alreadyDone);
+        if (partial.getValidator() == null)
+            partial.recordValidator(RangeRequests.validatorOf(probe));
+
+        try {
+            fetchAll(first, probe, remaining.subList(1, remaining.size()));
+        } finally {
+            if (changedOnServer.get())
+                partial.discard();
+            else
+                partial.saveProgress();
+        }
+    }
+
+    private void downloadWhole(HttpResponse response) throws IOException {
+        try {
+            if (response.getStatusCode() == RangeRequests.HTTP_PARTIAL_CONTENT)
+                throw new IOException("Server sent the wrong range of " + info.getName());
+
+            try (final OutputStream os = new CountingFilterOutputStream(bandwidthLimiter.throttle(partial.start(RangeRequests.validatorOf(response), false)), downloadListener)) {
+                response.download(os);
+            }
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    private void fetchAll(Segment first, HttpResponse firstResponse, List<Segment> others) throws IOException, InterruptedException {
+        try (final FileChannel channel = partial.openSegmented()) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Segment segment : others)
+                futures.add(policy.getExecutor().submit(new SegmentCallable(segment, channel)));
+
+            Throwable failure = null;
+            try {
+                fetch(first, firstResponse, channel);
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+
+            try {
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ee) {
+                        if (failure == null)
+                            failure = ee.getCause();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                for (Future<Void> future : futures)
+                    future.cancel(true);
+                throw ie;
+            }
+
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            else if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            else if (failure != null)
+                throw new IOException("Failed to download a segment of " + info.getName(), failure);
+        }
+    }
+
+    private void fetch(Segment segment, HttpResponse response, FileChannel channel) throws IOException {
+        try (final OutputStream os = new CountingFilterOutputStream(bandwidthLimiter.throttle(new SegmentOutputStream(segment, channel)), downloadListener)) {
+            response.download(os);
+        } finally {
+            response.disconnect();
+        }
+
+        if (!segment.isComplete())
+            throw new IOException("Connection for " + info.getName() + " ended with "
+                                  + segment.getRemaining() + " bytes of its range left");
+    }
+
+    private class SegmentCallable implements Callable<Void> {
+
+        private final Segment segment;
+        private final FileChannel channel;
+
+        public SegmentCallable(Segment segment, FileChannel channel) {
+            this.segment = segment;
+            this.channel = channel;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            HttpResponse response = RangeRequests.get(requestFactory, url,
+                                                      segment.getNext(), segment.getEnd(), partial.getValidator());
+            if (!RangeRequests.isRangeFrom(response, segment.getNext())) {
+                response.disconnect();
+                changedOnServer.set(true);
+                throw new IOException(info.getName() + " changed on the server part way through downloading");
+            }
+
+            fetch(segment, response, channel);
+            return null;
+        }
+    }
+
+    private class SegmentOutputStream extends OutputStream {
+
+        private final Segment segment;
+        private final FileChannel channel;
+        private long sinceSave;
+
+        public SegmentOutputStream(Segment segment, FileChannel channel) {
+            this.segment = segment;
+            this.channel = channel;
+            this.sinceSave = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > segment.getRemaining())
+                throw new IOException("Server sent more of " + info.getName() + " than was asked for");
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            long position = segment.getNext();
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            segment.advance(len);
+
+            sinceSave += len;
+            if (sinceSave >= SAVE_INTERVAL) {
+                partial.saveProgress();
+                sinceSave = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.HttpRequestFactory;
+import java.nio.file.Path;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.MirrorSet;
+
+/**
+ * Everything an attempt at fetching a file works with that stays the same across one update. The
+ * {@link Downloader} builds it once the new generation is staged.
+ *
+ * @author Lachlan Phillips
+ */
+class TransferContext {
+
+    private final HttpRequestFactory requestFactory;
+    private final Path tmpRoot;
+    private final DownloadListener downloadListener;
+    private final TransferScheduler scheduler;
+    private final MirrorSet mirrors;
+    private final HedgePolicy hedgePolicy;
+    private final SegmentPolicy segmentPolicy;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final CommitStage commitStage;
+    private final Patcher patcher;
+    private final JarRebuilder jarRebuilder;
+    private final ChunkedDownload chunked;
+    private final AsyncHttpEngine engine;
+    private final Metrics metrics;
+
+    private TransferContext(Builder builder) {
+        this.requestFactory = required(builder.requestFactory, "request factory");
+        this.tmpRoot = required(builder.tmpRoot, "tmp root");
+        this.downloadListener = required(builder.downloadListener, "download listener");
+        this.scheduler = required(builder.scheduler, "scheduler");
+        this.mirrors = required(builder.mirrors, "mirrors");
+        this.hedgePolicy = required(builder.hedgePolicy, "hedge policy");
+        this.segmentPolicy = required(builder.segmentPolicy, "segment policy");
+        this.bandwidthLimiter = required(builder.bandwidthLimiter, "bandwidth limiter");
+        this.commitStage = required(builder.commitStage, "commit stage");
+        this.patcher = required(builder.patcher, "patcher");
+        this.jarRebuilder = required(builder.jarRebuilder, "jar rebuilder");
+        this.chunked = required(builder.chunked, "chunked download");
+        this.engine = builder.engine;
+        this.metrics = required(builder.metrics, "metrics");
+    }
+
+    private static <T> T required(T value, String name) {
+        if (value == null)
+            throw new IllegalStateException("No " + name + " given for the transfer context");
+        return value;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public HttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    public Path getTmpRoot() {
+        return tmpRoot;
+    }
+
+    public DownloadListener getDownloadListener() {
+        return downloadListener;
+    }
+
+    public TransferScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public MirrorSet getMirrors() {
+        return mirrors;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    public SegmentPolicy getSegmentPolicy() {
+        return segmentPolicy;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    public CommitStage getCommitStage() {
+        return commitStage;
+    }
+
+    public Patcher getPatcher() {
+        return patcher;
+    }
+
+    public JarRebuilder getJarRebuilder() {
+        return jarRebuilder;
+    }
+
+    public ChunkedDownload getChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return the non-blocking engine, or null if every file is fetched on a network thread
+     */
+    public AsyncHttpEngine getEngine() {
+        return engine;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public static class Builder {
+
+        private HttpRequestFactory requestFactory;
+        private Path tmpRoot;
+        private DownloadListener downloadListener;
+        private TransferScheduler scheduler;
+        private MirrorSet mirrors;
+        private HedgePolicy hedgePolicy;
+        private SegmentPolicy segmentPolicy;
+        private BandwidthLimiter bandwidthLimiter;
+        private CommitStage commitStage;
+        private Patcher patcher;
+        private JarRebuilder jarRebuilder;
+        private ChunkedDownload chunked;
+        private AsyncHttpEngine engine;
+        private Metrics metrics;
+
+        private Builder() {
+        }
+
+        public Builder requestFactory(HttpRequestFactory requestFactory) {
+            this.requestFactory = requestFactory;
+            return this;
+        }
+
+        public Builder tmpRoot(Path tmpRoot) {
+            this.tmpRoot = tmpRoot;
+            return this;
+        }
+
+        public Builder downloadListener(DownloadListener downloadListener) {
+            this.downloadListener = downloadListener;
+            return this;
+        }
+
+        public Builder scheduler(TransferScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public Builder mirrors(MirrorSet mirrors) {
+            this.mirrors = mirrors;
+            return this;
+        }
+
+        public Builder hedgePolicy(HedgePolicy hedgePolicy) {
+            this.hedgePolicy = hedgePolicy;
+            return this;
+        }
+
+        public Builder segmentPolicy(SegmentPolicy segmentPolicy) {
+            this.segmentPolicy = segmentPolicy;
+            return this;
+        }
+
+        public Builder bandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+            this.bandwidthLimiter = bandwidthLimiter;
+            return this;
+        }
+
+        public Builder commitStage(CommitStage commitStage) {
+            this.commitStage = commitStage;
+            return this;
+        }
+
+        public Builder patcher(Patcher patcher) {
+            this.patcher = patcher;
+            return this;
+        }
+
+        public Builder jarRebuilder(JarRebuilder jarRebuilder) {
+            this.jarRebuilder = jarRebuilder;
+            return this;
+        }
+
+        public Builder chunked(ChunkedDownload chunked) {
+            this.chunked = chunked;
+            return this;
+        }
+
+        public Builder engine(AsyncHttpEngine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder metrics(Metrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public TransferContext build() {
+            return new TransferContext(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.metrics.Metrics;
+
+/**
+ * Times one attempt at fetching a file, whichever way it is fetched, by watching what it reports
+ * to the download listener on the way through. The first bytes are only seen once the counting
+ * streams report them, so for small files the time to first byte is nearer the time to the last.
+ *
+ * @author Lachlan Phillips
+ */
+class TransferMeter implements DownloadListener {
+
+    private final DownloadListener listener;
+    private final Metrics metrics;
+    private final long started;
+    private final AtomicBoolean firstByte = new AtomicBoolean();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong reported;
+
+    public TransferMeter(DownloadListener listener, Metrics metrics) {
+        this(listener, metrics, new AtomicLong());
+    }
+
+    /**
+     * @param reported how much of the file earlier attempts reported as downloaded, which this
+     *                 adds to
+     */
+    public TransferMeter(DownloadListener listener, Metrics metrics, AtomicLong reported) {
+        this.listener = listener;
+        this.metrics = metrics;
+        this.started = System.nanoTime();
+        this.reported = reported;
+    }
+
+    /**
+     * Reports that {@code bytes} of the file are on disk, such as when resuming. Only what no
+     * attempt has reported yet counts; the rest was reported as an earlier attempt wrote it.
+     */
+    public void onDisk(long bytes) {
+        long unreported = bytes - reported.get();
+        if (unreported > 0)
+            downloadedSome(new MemoryUnit(unreported));
+    }
+
+    /**
+     * @return how much of the file has been reported as downloaded, over every attempt
+     */
+    public long getReported() {
+        return reported.get();
+    }
+
+    /**
+     * Records how fast the attempt went; called once it has all been written to tmp.
+     */
+    public void finished() {
+        long bytes = received.get();
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+        metrics.counter("download.received-bytes").add(bytes);
+        // Files that were patched together or rebuilt locally say nothing about the network
+        if (bytes > 0 && micros > 0)
+            metrics.histogram("download.throughput-kb-per-s").record(bytes * 1000000 / 1024 / micros);
+    }
+
+    @Override
+    public void startingDownload(int numberOfFiles, MemoryUnit totalSize) {
+        listener.startingDownload(numberOfFiles, totalSize);
+    }
+
+    @Override
+    public void downloadedSome(MemoryUnit amount) {
+        reported.addAndGet(amount.inBytes());
+        listener.downloadedSome(amount);
+    }
+
+    @Override
+    public void receivedSome(MemoryUnit amount) {
+        if (!firstByte.get() && amount.inBytes() > 0 && firstByte.compareAndSet(false, true))
+            metrics.recordMillisSince("download.first-byte-ms", started);
+        received.addAndGet(amount.inBytes());
+        listener.receivedSome(amount);
+    }
+
+    @Override
+    public void completedADownload() {
+        listener.completedADownload();
+    }
+
+    @Override
+    public void startingVerify(int numberOfFiles) {
+        listener.startingVerify(numberOfFiles);
+    }
+
+    @Override
+    public void completedAVerify() {
+        listener.completedAVerify();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs network and hashing work on separately sized pools. Each pool has a single shared queue
+ * ordered largest job first, so the biggest files start early instead of becoming the long tail,
+ * and whichever worker goes idle first takes the next job.
+ *
+ * @author Lachlan Phillips
+ */
+public class TransferScheduler {
+
+    private final Pool network;
+    private final Pool hashing;
+    private final ExecutorService segments;
+    private final ExecutorService digestHelpers;
+    private final ScheduledExecutorService timer;
+
+    public TransferScheduler(int networkThreads, int hashingThreads) {
+        this.network = new Pool(networkThreads, "Summis Client: HTTP Download Executor");
+        this.hashing = new Pool(hashingThreads, "Summis Client: Hashing Executor");
+        this.segments = Executors.newCachedThreadPool(daemonThreads("Summis Client: HTTP Segment Executor"));
+        this.digestHelpers = Executors.newCachedThreadPool(daemonThreads("Summis Client: Digest Helper Executor"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("Summis Client: Retry Timer"));
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                thread.setName(name);
+                return thread;
+            }
+        };
+    }
+
+    public <T> Future<T> submitNetwork(Callable<T> task, long size) {
+        return network.submit(task, size);
+    }
+
+    public <T> Future<T> submitHashing(Callable<T> task, long size) {
+        return hashing.submit(task, size);
+    }
+
+    /**
+     * Runs {@code task} after a delay, such as to put a failed transfer back in a queue.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Segments of a file are waited on by a network job, so they cannot share its pool.
+     */
+    ExecutorService getSegmentExecutor() {
+        return segments;
+    }
+
+    /**
+     * Hashing jobs hand half of a large file's digesting to this, for the same reason.
+     */
+    ExecutorService getDigestHelperExecutor() {
+        return digestHelpers;
+    }
+
+    public int getNetworkQueueDepth() {
+        return network.getQueueDepth();
+    }
+
+    public int getNetworkInFlight() {
+        return network.getInFlight();
+    }
+
+    public int getHashingQueueDepth() {
+        return hashing.getQueueDepth();
+    }
+
+    public int getHashingInFlight() {
+        return hashing.getInFlight();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferScheduler{network=" + network + ", hashing=" + hashing + '}';
+    }
+
+    private static class Pool {
+
+        private final ThreadPoolExecutor executor;
+        private final AtomicInteger inFlight;
+        private final AtomicLong sequence;
+
+        public Pool(int threads, String name) {
+            this.executor = new ThreadPoolExecutor(threads, threads,
+                                                   0, TimeUnit.MILLISECONDS,
+                                                   new PriorityBlockingQueue<Runnable>(),
+                                                   daemonThreads(name));
+            // Otherwise each of the first tasks gets a new thread of its own, skipping the queue
+            // and so starting in the order they came rather than largest first
+            this.executor.prestartAllCoreThreads();
+            this.inFlight = new AtomicInteger();
+            this.sequence = new AtomicLong();
+        }
+
+        public <T> Future<T> submit(Callable<T> task, long size) {
+            SizedTask<T> sized = new SizedTask<>(task, size, sequence.getAndIncrement(), inFlight);
+            executor.execute(sized);
+            return sized;
+        }
+
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public String toString() {
+            return "{queued=" + getQueueDepth() + ", inFlight=" + getInFlight() + '}';
+        }
+    }
+
+    private static class SizedTask<T> extends FutureTask<T> implements Comparable<SizedTask<?>> {
+
+        private final long size;
+        private final long sequence;
+        private final AtomicInteger inFlight;
+
+        public SizedTask(Callable<T> callable, long size, long sequence, AtomicInteger inFlight) {
+            super(callable);
+            this.size = size;
+            this.sequence = sequence;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void run() {
+            inFlight.incrementAndGet();
+            try {
+                super.run();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(SizedTask<?> o) {
+            // Largest first; ties keep the order they were submitted in
+            if (size != o.size)
+                return size > o.size ? -1 : 1;
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
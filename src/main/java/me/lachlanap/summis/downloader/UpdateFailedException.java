@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when an update could not install every file, after retries. The current install is left
+ * as it was.
+ *
+ * @author Lachlan Phillips
+ */
+public class UpdateFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<FileOutcome> outcomes;
+
+    public UpdateFailedException(List<FileOutcome> outcomes) {
+        super(describe(outcomes));
+        this.outcomes = Collections.unmodifiableList(new ArrayList<>(outcomes));
+    }
+
+    private static String describe(List<FileOutcome> outcomes) {
+        StringBuilder failed = new StringBuilder();
+        int count = 0;
+        for (FileOutcome outcome : outcomes) {
+            if (!outcome.isInstalled()) {
+                if (count > 0)
+                    failed.append(", ");
+                failed.append(outcome.getInfo().getName());
+                count++;
+            }
+        }
+        return "Update failed: " + count + " files could not be installed (" + failed + ")";
+    }
+
+    public List<FileOutcome> getOutcomes() {
+        return outcomes;
+    }
+}
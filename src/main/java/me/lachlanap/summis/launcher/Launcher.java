@@ -32,6 +32,8 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import me.lachlanap.config.Configuration;
+import me.lachlanap.summis.Generations;
+import me.lachlanap.summis.metrics.Metrics;
 
 /**
  *
@@ -41,16 +43,18 @@ public class Launcher {
 
     private final Configuration config;
     private final Path installRoot;
+    private final Metrics metrics;
 
     private final String mainClass;
     private final Path binaryRoot;
 
-    public Launcher(Configuration config, Path installRoot) {
+    public Launcher(Configuration config, Path installRoot, Metrics metrics) {
         this.config = config;
         this.installRoot = installRoot;
+        this.metrics = metrics;
 
         this.mainClass = config.getString("launcher.main-class");
-        this.binaryRoot = installRoot.resolve("bin");
+        this.binaryRoot = new Generations(installRoot).getCurrent();
     }
 
     public void launch() {
@@ -64,6 +68,9 @@ public class Launcher {
     }
 
     private List<String> buildCommand() throws IOException {
+        if (binaryRoot == null)
+            throw new IOException("Nothing is installed");
+
         List<String> cmd = new ArrayList<>();
 
         String javaBin = findJavaBin().toString();
@@ -110,11 +117,13 @@ public class Launcher {
     }
 
     private void run(List<String> cmd) throws IOException {
+        long spawning = System.nanoTime();
         Process process = new ProcessBuilder()
                 .command(cmd)
                 .directory(installRoot.toFile())
                 .redirectError(installRoot.resolve("stderr.txt").toFile())
                 .redirectOutput(installRoot.resolve("stdout.txt").toFile())
                 .start();
+        metrics.recordMillisSince("launcher.spawn-ms", spawning);
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.metrics;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import me.lachlanap.summis.StripedCounter;
+
+/**
+ * Counters and histograms recorded over one run of the client, by name. Names end in the unit
+ * being recorded, such as {@code -ms}.
+ *
+ * @author Lachlan Phillips
+ */
+public class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "me.lachlanap.summis:type=Metrics";
+
+    private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final long started = System.currentTimeMillis();
+
+    public StripedCounter counter(String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null)
+                histogram = created;
+        }
+        return histogram;
+    }
+
+    /**
+     * Records how long it has been since {@code startNanos}, from {@link System#nanoTime()}.
+     */
+    public void recordMillisSince(String histogram, long startNanos) {
+        histogram(histogram).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, StripedCounter> counter : counters.entrySet())
+            values.put(counter.getKey(), counter.getValue().sum());
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getHistograms() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".min", histogram.getMin());
+            values.put(name + ".max", histogram.getMax());
+            values.put(name + ".mean", Math.round(histogram.getMean()));
+            values.put(name + ".p50", histogram.getPercentile(0.5));
+            values.put(name + ".p90", histogram.getPercentile(0.9));
+            values.put(name + ".p99", histogram.getPercentile(0.99));
+        }
+        return values;
+    }
+
+    @Override
+    public String getJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("started", started);
+        json.addProperty("durationMillis", System.currentTimeMillis() - started);
+
+        JsonObject countersJson = new JsonObject();
+        for (Map.Entry<String, Long> counter : getCounters().entrySet())
+            countersJson.addProperty(counter.getKey(), counter.getValue());
+        json.add("counters", countersJson);
+
+        JsonObject histogramsJson = new JsonObject();
+        for (String name : new TreeMap<>(histograms).keySet()) {
+            Histogram histogram = histograms.get(name);
+            JsonObject histogramJson = new JsonObject();
+            histogramJson.addProperty("count", histogram.getCount());
+            histogramJson.addProperty("min", histogram.getMin());
+            histogramJson.addProperty("max", histogram.getMax());
+            histogramJson.addProperty("mean", histogram.getMean());
+            histogramJson.addProperty("p50", histogram.getPercentile(0.5));
+            histogramJson.addProperty("p90", histogram.getPercentile(0.9));
+            histogramJson.addProperty("p99", histogram.getPercentile(0.99));
+            histogramsJson.add(name, histogramJson);
+        }
+        json.add("histograms", histogramsJson);
+
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+
+    /**
+     * Writes {@link #getJson()} to {@code file}, replacing what the last run wrote there.
+     */
+    public void writeTo(Path file) {
+        try {
+            Path incoming = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(incoming, getJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(incoming, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write metrics to " + file, ioe);
+        }
+    }
+
+    /**
+     * Makes these visible over JMX as {@value #OBJECT_NAME}, until {@link #unregister()}.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException jme) {
+            // Only the monitoring is lost; the update carries on
+            System.out.println("Failed to expose metrics over JMX: " + jme);
+        }
+    }
+
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException jme) {
+            System.out.println("Failed to stop exposing metrics over JMX: " + jme);
+        }
+    }
+}
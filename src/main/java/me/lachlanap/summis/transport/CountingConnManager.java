@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A connection pool that counts how many of the connections it hands out were already open, and
+ * how many had to be opened. A connection found stale and opened again counts as opened.
+ *
+ * @author Lachlan Phillips
+ */
+class CountingConnManager extends ThreadSafeClientConnManager {
+
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+
+    CountingConnManager(HttpParams params, SchemeRegistry schemes) {
+        super(params, schemes);
+    }
+
+    /**
+     * @return connections handed out that were already open
+     */
+    long getHits() {
+        return Math.max(0, leases.get() - opens.get());
+    }
+
+    /**
+     * @return connections that had to be opened
+     */
+    long getMisses() {
+        return opens.get();
+    }
+
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemes) {
+        // Called from the super constructor, so the counters are only looked at when opening
+        return new DefaultClientConnectionOperator(schemes) {
+
+            @Override
+            public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+                                       HttpContext context, HttpParams params) throws IOException {
+                opens.incrementAndGet();
+                super.openConnection(conn, target, local, context, params);
+            }
+        };
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ClientConnectionRequest request = super.requestConnection(route, state);
+        return new ClientConnectionRequest() {
+
+            @Override
+            public ManagedClientConnection getConnection(long timeout, TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException {
+                ManagedClientConnection connection = request.getConnection(timeout, unit);
+                leases.incrementAndGet();
+                return connection;
+            }
+
+            @Override
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+}
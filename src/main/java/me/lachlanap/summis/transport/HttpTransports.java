@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.transport;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import java.net.ProxySelector;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Builds the one transport shared by the manifest fetch and every download, so that a run of many
+ * small files from the one server reuses kept-alive connections instead of paying for a TCP (and
+ * TLS) handshake each time.
+ *
+ * @author Lachlan Phillips
+ */
+public final class HttpTransports {
+
+    private HttpTransports() {
+    }
+
+    /**
+     * @param connectionsPerHost most connections open to any one server at once; requests beyond
+     *                           that wait for one to come free
+     * @param maxConnections     most connections open across all servers at once
+     */
+    public static HttpTransport pooled(int connectionsPerHost, int maxConnections) {
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder();
+
+        HttpParams params = builder.getHttpParams();
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(connectionsPerHost));
+        ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+        // The server may have closed a connection while it sat in the pool
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+        SchemeRegistry schemes = new SchemeRegistry();
+        schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemes.register(new Scheme("https", builder.getSSLSocketFactory(), 443));
+
+        // The same client the builder would make, but over a pool that counts its reuse
+        DefaultHttpClient client = new DefaultHttpClient(new CountingConnManager(params, schemes), params);
+        // Retries are left to the downloader, which knows what is safe to try again
+        client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+        // Goes through the system proxy settings, like HttpURLConnection
+        client.setRoutePlanner(new ProxySelectorRoutePlanner(schemes, ProxySelector.getDefault()));
+        return new ApacheHttpTransport(client);
+    }
+
+    /**
+     * @return how many requests went over a connection already open in {@code transport}'s pool,
+     *         or 0 if it was not made by {@link #pooled(int, int)}
+     */
+    public static long getPoolHits(HttpTransport transport) {
+        CountingConnManager pool = poolOf(transport);
+        return pool == null ? 0 : pool.getHits();
+    }
+
+    /**
+     * @return how many connections {@code transport} had to open, or 0 if it was not made by
+     *         {@link #pooled(int, int)}
+     */
+    public static long getPoolMisses(HttpTransport transport) {
+        CountingConnManager pool = poolOf(transport);
+        return pool == null ? 0 : pool.getMisses();
+    }
+
+    private static CountingConnManager poolOf(HttpTransport transport) {
+        if (!(transport instanceof ApacheHttpTransport))
+            return null;
+
+        HttpClient client = ((ApacheHttpTransport) transport).getHttpClient();
+        ClientConnectionManager manager = client.getConnectionManager();
+        return manager instanceof CountingConnManager ? (CountingConnManager) manager : null;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.transport;
+
+/**
+ * A server with the same files under the same paths as the primary one, along with how well it
+ * has been doing. Latency is smoothed over probes and requests, throughput over real transfers,
+ * and each failure in a row sets it aside for twice as long as the last.
+ *
+ * @author Lachlan Phillips
+ */
+public class Mirror {
+
+    private static final double SMOOTHING = 0.3;
+    // Smaller transfers are over too quickly to say anything about throughput
+    private static final long MIN_THROUGHPUT_SAMPLE = 64 * 1024;
+    private static final long BASE_DOWNTIME = 10000;
+    private static final long MAX_DOWNTIME = 5 * 60 * 1000;
+
+    private final String address;
+    private final String primaryAddress;
+
+    private double latencyMillis;
+    private double bytesPerSecond;
+    private int failures;
+    private long downUntil;
+
+    /**
+     * @param primaryAddress the address that URLs in the manifest start with
+     */
+    public Mirror(String address, String primaryAddress) {
+        this.address = address;
+        this.primaryAddress = primaryAddress;
+        this.latencyMillis = Double.NaN;
+        this.bytesPerSecond = Double.NaN;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return where {@code url}, which points at the primary server, is on this one; URLs on other
+     *         servers are left as they are
+     */
+    public String resolve(String url) {
+        if (address.equals(primaryAddress) || !url.startsWith(primaryAddress))
+            return url;
+        return address + url.substring(primaryAddress.length());
+    }
+
+    /**
+     * Records how long a request took to get a response.
+     */
+    public synchronized void responded(long millis) {
+        latencyMillis = smooth(latencyMillis, millis);
+        failures = 0;
+        downUntil = 0;
+    }
+
+    /**
+     * Records a response body arriving.
+     */
+    public synchronized void transferred(long bytes, long nanos) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE || nanos <= 0)
+            return;
+        bytesPerSecond = smooth(bytesPerSecond, bytes * 1e9 / nanos);
+    }
+
+    private static double smooth(double average, double sample) {
+        return Double.isNaN(average) ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    public synchronized void failed() {
+        failures++;
+        downUntil = System.currentTimeMillis() + Math.min(MAX_DOWNTIME, BASE_DOWNTIME << Math.min(failures - 1, 20));
+    }
+
+    public synchronized boolean isDown() {
+        return System.currentTimeMillis() < downUntil;
+    }
+
+    /**
+     * @return how long fetching {@code bytes} from here should take, or infinity if it has not
+     *         been heard from yet
+     */
+    public synchronized double estimateMillis(long bytes) {
+        if (Double.isNaN(latencyMillis))
+            return Double.POSITIVE_INFINITY;
+        if (Double.isNaN(bytesPerSecond))
+            return latencyMillis;
+        return latencyMillis + bytes * 1000 / bytesPerSecond;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Mirror{" + address + ", latency=" + (Double.isNaN(latencyMillis) ? "?" : (long) latencyMillis + "ms")
+               + ", throughput=" + (Double.isNaN(bytesPerSecond) ? "?" : (long) (bytesPerSecond / 1024) + "KB/s")
+               + ", failures=" + failures + '}';
+    }
+}
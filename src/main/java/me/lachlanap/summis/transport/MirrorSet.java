@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.transport;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The primary server and its mirrors, ranked by how quickly each should deliver a file of a given
+ * size. Until a mirror has been heard from, they keep the order they were configured in.
+ *
+ * @author Lachlan Phillips
+ */
+public class MirrorSet {
+
+    private static final int PROBE_TIMEOUT = 3000;
+
+    private final List<Mirror> mirrors;
+
+    public MirrorSet(String primaryAddress, List<String> mirrorAddresses) {
+        this.mirrors = new ArrayList<>();
+        mirrors.add(new Mirror(primaryAddress, primaryAddress));
+        for (String address : mirrorAddresses)
+            if (!address.equals(primaryAddress))
+                mirrors.add(new Mirror(address, primaryAddress));
+    }
+
+    /**
+     * @param list addresses separated by commas or whitespace
+     */
+    public static List<String> parseAddresses(String list) {
+        List<String> addresses = new ArrayList<>();
+        for (String address : list.split("[,\\s]+"))
+            if (!address.isEmpty())
+                addresses.add(address);
+        return addresses;
+    }
+
+    /**
+     * Times a HEAD request for {@code path} on every server at once, without waiting for the
+     * results. That only measures latency; throughput is learnt from real transfers.
+     */
+    public void probe(HttpTransport transport, final String path) {
+        final HttpRequestFactory requestFactory = transport.createRequestFactory();
+        for (final Mirror mirror : mirrors) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    probe(requestFactory, mirror, path);
+                }
+            });
+            thread.setDaemon(true);
+            thread.setName("Summis Client: Mirror Probe");
+            thread.start();
+        }
+    }
+
+    private static void probe(HttpRequestFactory requestFactory, Mirror mirror, String path) {
+        try {
+            HttpRequest request = requestFactory.buildHeadRequest(new GenericUrl(mirror.getAddress() + path));
+            request.setConnectTimeout(PROBE_TIMEOUT);
+            request.setReadTimeout(PROBE_TIMEOUT);
+
+            long sent = System.nanoTime();
+            HttpResponse response = request.execute();
+            mirror.responded((System.nanoTime() - sent) / 1000000);
+            response.disconnect();
+        } catch (IOException ioe) {
+            mirror.failed();
+        }
+        System.out.println("Probed " + mirror);
+    }
+
+    /**
+     * @return every server, those that are up first and the quickest to deliver {@code bytes}
+     *         first among them
+     */
+    public List<Mirror> rank(long bytes) {
+        // Probes and transfers update mirrors all the time, so sort on a snapshot
+        List<Standing> standings = new ArrayList<>();
+        for (Mirror mirror : mirrors)
+            standings.add(new Standing(mirror, mirror.isDown(), mirror.estimateMillis(bytes)));
+
+        // Sorting is stable, so ties keep the configured order
+        Collections.sort(standings, new Comparator<Standing>() {
+
+            @Override
+            public int compare(Standing a, Standing b) {
+                if (a.down != b.down)
+                    return a.down ? 1 : -1;
+                return Double.compare(a.estimateMillis, b.estimateMillis);
+            }
+        });
+
+        List<Mirror> ranked = new ArrayList<>();
+        for (Standing standing : standings)
+            ranked.add(standing.mirror);
+        return ranked;
+    }
+
+    /**
+     * @return the best server other than {@code busy} that is up, or null if there is none
+     */
+    public Mirror alternativeTo(Mirror busy, long bytes) {
+        for (Mirror mirror : rank(bytes))
+            if (mirror != busy && !mirror.isDown())
+                return mirror;
+        return null;
+    }
+
+    public List<Mirror> getMirrors() {
+        return Collections.unmodifiableList(mirrors);
+    }
+
+    private static class Standing {
+
+        private final Mirror mirror;
+        private final boolean down;
+        private final double estimateMillis;
+
+        public Standing(Mirror mirror, boolean down, double estimateMillis) {
+            this.mirror = mirror;
+            this.down = down;
+            this.estimateMillis = estimateMillis;
+        }
+    }
+}
@@ -33,12 +33,15 @@ import me.lachlanap.summis.downloader.DownloadListener;
  *
  * @author Lachlan Phillips
  */
-public class ActionPanel extends JPanel implements StatusListener, DownloadListener {
+public class ActionPanel extends JPanel implements StatusListener {
 
     private int totalFiles;
     private MemoryUnit totalSize;
-    private int currentCompleteFiles;
-    private MemoryUnit runningTotal;
+    private boolean verifying;
+    private long currentCompleteFiles;
+    private long runningTotal;
+    private long receivedTotal;
+    private boolean inBackground;
 
     /**
      * Creates new form ActionPanel
@@ -107,54 +110,66 @@ public class ActionPanel extends JPanel implements StatusListener, DownloadListe
         progressBar.setString("Launching...");
     }
 
+    @Override
+    public void downloadingInBackground() {
+        inBackground = true;
+        progressBar.setString("Downloading the update in the background...");
+    }
+
     @Override
     public void finished() {
         progressBar.setString("Done");
     }
 
-    @Override
     public void startingDownload(int numberOfFiles, MemoryUnit totalSize) {
         this.totalFiles = numberOfFiles;
         this.totalSize = totalSize;
+        verifying = false;
 
         currentCompleteFiles = 0;
-        runningTotal = MemoryUnit.ZERO;
+        runningTotal = 0;
+        receivedTotal = 0;
 
         progressBar.setIndeterminate(false);
         refreshDownloadStatus();
     }
 
-    @Override
-    public void downloadedSome(MemoryUnit amount) {
-        runningTotal = runningTotal.plus(amount);
-        refreshDownloadStatus();
-    }
-
-    @Override
-    public void completedADownload() {
-        currentCompleteFiles++;
-        refreshDownloadStatus();
-    }
-
-    @Override
     public void startingVerify(int numberOfFiles) {
         this.totalFiles = numberOfFiles;
+        verifying = true;
         currentCompleteFiles = 0;
         refreshVerifyStatus();
     }
 
-    @Override
-    public void completedAVerify() {
-        currentCompleteFiles++;
-        refreshVerifyStatus();
+    /**
+     * Shows how far the current download or verify has got, if that has changed since last time.
+     *
+     * @param completeFiles files downloaded or verified so far
+     * @param downloaded    bytes of the files, as installed, on disk so far
+     * @param received      bytes that have come over the network so far
+     */
+    public void progressed(long completeFiles, long downloaded, long received) {
+        if (completeFiles == currentCompleteFiles && downloaded == runningTotal && received == receivedTotal)
+            return;
+        currentCompleteFiles = completeFiles;
+        runningTotal = downloaded;
+        receivedTotal = received;
+
+        if (verifying)
+            refreshVerifyStatus();
+        else if (totalSize != null)
+            refreshDownloadStatus();
     }
 
     private void refreshDownloadStatus() {
-        progressBar.setString(
-                String.format("Downloaded %d of %d files, %s of %s...",
-                              currentCompleteFiles, totalFiles,
-                              runningTotal.toString(), totalSize.toString()));
-        progressBar.setValue((int) ((float) runningTotal.inBytes() * 1000 / totalSize.inBytes()));
+        String status = String.format(inBackground ? "In the background: %d of %d files, %s of %s" : "Downloaded %d of %d files, %s of %s",
+                                      currentCompleteFiles, totalFiles,
+                                      new MemoryUnit(runningTotal).toString(), totalSize.toString());
+        // Compressed files and patches take less to transfer than they fill on disk
+        if (receivedTotal != runningTotal)
+            status += String.format(" (%s transferred)", new MemoryUnit(receivedTotal).toString());
+        progressBar.setString(status + "...");
+        progressBar.setValue((int) ((float) runningTotal * 1000 / totalSize.inBytes()));
     }
 
     private void refreshVerifyStatus() {
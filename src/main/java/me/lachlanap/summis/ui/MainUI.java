@@ -27,10 +27,13 @@ import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.lang.reflect.InvocationTargetException;
 import javax.swing.*;
 import me.lachlanap.summis.ResponseSource;
 import me.lachlanap.summis.StatusListener;
+import me.lachlanap.summis.StripedCounter;
 import me.lachlanap.summis.Version;
 import me.lachlanap.summis.downloader.DownloadListener;
 import me.lachlanap.summis.MemoryUnit;
@@ -41,10 +44,14 @@ import me.lachlanap.summis.MemoryUnit;
  */
 public class MainUI {
 
+    // About 20 times a second, however fast the files are coming in
+    private static final int PROGRESS_INTERVAL = 50;
+
     private JDialog window;
     private ActionPanel actionPanel;
     private ResponsePanel responsePanel;
     private InfoPanel infoPanel;
+    private Timer progressTimer;
 
     public MainUI() throws InterruptedException {
         try {
@@ -119,6 +126,7 @@ public class MainUI {
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
+                    stopProgressTimer();
                     Container c = window.getContentPane();
                     c.remove(actionPanel);
                     c.add(infoPanel, BorderLayout.CENTER);
@@ -133,14 +141,19 @@ public class MainUI {
 
         @Override
         public DownloadListener downloading() {
+            final UIDownloadNotifier notifier = new UIDownloadNotifier();
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
                     actionPanel.downloading();
+
+                    stopProgressTimer();
+                    progressTimer = new Timer(PROGRESS_INTERVAL, notifier);
+                    progressTimer.start();
                 }
             });
 
-            return new UIDownloadNotifier();
+            return notifier;
         }
 
         @Override
@@ -153,11 +166,26 @@ public class MainUI {
             });
         }
 
+        @Override
+        public void downloadingInBackground() {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    actionPanel.downloadingInBackground();
+
+                    // Stay out of the way of the app while the rest downloads
+                    window.setAlwaysOnTop(false);
+                    window.toBack();
+                }
+            });
+        }
+
         @Override
         public void finished() {
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
+                    stopProgressTimer();
                     actionPanel.finished();
 
                     window.setVisible(false);
@@ -167,43 +195,69 @@ public class MainUI {
         }
     }
 
-    private class UIDownloadNotifier implements DownloadListener {
+    private void stopProgressTimer() {
+        if (progressTimer != null) {
+            progressTimer.stop();
+            progressTimer = null;
+        }
+    }
+
+    /**
+     * Download threads only add to counters here; the progress timer reads them on the EDT, so
+     * the UI does the same amount of work however fast the download goes.
+     */
+    private class UIDownloadNotifier implements DownloadListener, ActionListener {
+
+        private final StripedCounter completedFiles = new StripedCounter();
+        private final StripedCounter downloaded = new StripedCounter();
+        private final StripedCounter received = new StripedCounter();
+
+        // Where the current download or verify started counting from; only touched on the EDT
+        private long completedFilesBase;
+        private long downloadedBase;
+        private long receivedBase;
 
         @Override
         public void startingDownload(final int numberOfFiles, final MemoryUnit totalSize) {
+            // Read here, before any of this download's files can add to them
+            final long completedFilesAtStart = completedFiles.sum();
+            final long downloadedAtStart = downloaded.sum();
+            final long receivedAtStart = received.sum();
             SwingUtilities.invokeLater(new Runnable() {
+
                 @Override
                 public void run() {
+                    completedFilesBase = completedFilesAtStart;
+                    downloadedBase = downloadedAtStart;
+                    receivedBase = receivedAtStart;
                     actionPanel.startingDownload(numberOfFiles, totalSize);
                 }
             });
         }
 
         @Override
-        public void downloadedSome(final MemoryUnit amount) {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    actionPanel.downloadedSome(amount);
-                }
-            });
+        public void downloadedSome(MemoryUnit amount) {
+            downloaded.add(amount.inBytes());
+        }
+
+        @Override
+        public void receivedSome(MemoryUnit amount) {
+            received.add(amount.inBytes());
         }
 
         @Override
         public void completedADownload() {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    actionPanel.completedADownload();
-                }
-            });
+            completedFiles.increment();
         }
 
         @Override
         public void startingVerify(final int numberOfFiles) {
+            final long completedFilesAtStart = completedFiles.sum();
             SwingUtilities.invokeLater(new Runnable() {
+
                 @Override
                 public void run() {
+                    completedFilesBase = completedFilesAtStart;
                     actionPanel.startingVerify(numberOfFiles);
                 }
             });
@@ -211,14 +265,15 @@ public class MainUI {
 
         @Override
         public void completedAVerify() {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    actionPanel.completedAVerify();
-                }
-            });
+            completedFiles.increment();
         }
 
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            actionPanel.progressed(completedFiles.sum() - completedFilesBase,
+                                   downloaded.sum() - downloadedBase,
+                                   received.sum() - receivedBase);
+        }
     }
 
     static {
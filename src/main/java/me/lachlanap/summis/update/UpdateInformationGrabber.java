@@ -24,7 +24,6 @@
 package me.lachlanap.summis.update;
 
 import com.google.api.client.http.*;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.util.ExponentialBackOff;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -34,14 +33,25 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 import me.lachlanap.config.Configuration;
 import me.lachlanap.summis.MemoryUnit;
 import me.lachlanap.summis.UpdateInformation;
+import me.lachlanap.summis.UpdateInformation.Chunk;
+import me.lachlanap.summis.UpdateInformation.ChunkList;
+import me.lachlanap.summis.UpdateInformation.Encoding;
 import me.lachlanap.summis.UpdateInformation.FileInfo;
 import me.lachlanap.summis.UpdateInformation.FileSet;
+import me.lachlanap.summis.UpdateInformation.Group;
+import me.lachlanap.summis.UpdateInformation.JarEntryInfo;
+import me.lachlanap.summis.UpdateInformation.JarEntryList;
+import me.lachlanap.summis.UpdateInformation.Patch;
 import me.lachlanap.summis.Version;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.MirrorSet;
 
 /**
  *
@@ -62,12 +72,25 @@ public class UpdateInformationGrabber {
         }
     });
 
-    private final Configuration config;
+    private final List<String> serverAddresses;
+    private final String project;
+    private final HttpRequestFactory requestFactory;
+    private final Metrics metrics;
     private Future<Void> future;
     private final List<VersionInfo> versions;
 
-    public UpdateInformationGrabber(Configuration config) {
-        this.config = config;
+    public UpdateInformationGrabber(Configuration config, HttpTransport transport, Metrics metrics) {
+        this(serverAddresses(config), config.getString("server.project"), transport, metrics);
+    }
+
+    /**
+     * @param serverAddresses where to look for the manifest, in the order to try them
+     */
+    public UpdateInformationGrabber(List<String> serverAddresses, String project, HttpTransport transport, Metrics metrics) {
+        this.serverAddresses = serverAddresses;
+        this.project = project;
+        this.requestFactory = transport.createRequestFactory();
+        this.metrics = metrics;
         this.versions = new ArrayList<>();
     }
 
@@ -75,37 +98,72 @@ public class UpdateInformationGrabber {
         future = EXECUTOR.submit(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                getVersionInformation(config);
+                getVersionInformation();
                 return null;
             }
         });
     }
 
-    private void getVersionInformation(Configuration config) throws IOException {
-        String serverAddress = config.getString("server.address");
-        String project = config.getString("server.project");
-
+    /**
+     * @return where the manifest for {@code project} is, relative to a server's address
+     */
+    public static String manifestPath(String project) {
         final int VERSION = 1;
-        String updateSourceUrl = serverAddress + String.format("%d/project/%s/%s.json", VERSION, project, project);
+        return String.format("%d/project/%s/%s.json", VERSION, project, project);
+    }
+
+    private static List<String> serverAddresses(Configuration config) {
+        List<String> serverAddresses = new ArrayList<>();
+        serverAddresses.add(config.getString("server.address"));
+        serverAddresses.addAll(MirrorSet.parseAddresses(config.getString("server.mirrors")));
+        return serverAddresses;
+    }
+
+    private void getVersionInformation() throws IOException {
+        String path = manifestPath(project);
+
+        // Mirrors carry the manifest too, so one server being down does not stop the update
+        for (int i = 0; i < serverAddresses.size(); i++) {
+            String updateSourceUrl = serverAddresses.get(i) + path;
+            try {
+                if (getVersionInformation(updateSourceUrl))
+                    return;
+            } catch (IOException ioe) {
+                metrics.counter("manifest.failures").increment();
+                if (i == serverAddresses.size() - 1)
+                    throw ioe;
+                System.out.println("Failed to fetch " + updateSourceUrl + ", trying the next mirror: " + ioe);
+            }
+        }
+    }
 
-        HttpRequestFactory factory = new NetHttpTransport().createRequestFactory();
+    /**
+     * @return false if there is no manifest there
+     */
+    private boolean getVersionInformation(String updateSourceUrl) throws IOException {
+        long started = System.nanoTime();
         try {
-            HttpRequest request = factory.buildGetRequest(new GenericUrl(updateSourceUrl));
+            HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(updateSourceUrl));
             request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff()));
             request.setReadTimeout(3000);
             HttpResponse response = request.execute();
+            String manifest = response.parseAsString();
+            metrics.recordMillisSince("manifest.fetch-ms", started);
 
-            process(response.parseAsString());
+            process(manifest);
 
             response.disconnect();
+            return true;
         } catch (HttpResponseException hre) {
             if (hre.getStatusCode() == 404) {
                 System.out.println(updateSourceUrl + " does not exist");
+                return false;
             }
+            throw hre;
         }
     }
 
-    private void process(String allText) {
+    void process(String allText) {
         JsonObject json = new JsonParser().parse(allText).getAsJsonObject();
         if (json.get("version").getAsInt() != FORMAT_VERSION)
             throw new RuntimeException("Format version "
@@ -144,12 +202,93 @@ public class UpdateInformationGrabber {
                                    new MemoryUnit(fileInfoJson.get("size").getAsLong()),
                                    fileInfoJson.get("url").getAsString(),
                                    fileInfoJson.get("md5").getAsString(),
-                                   fileInfoJson.get("sha1").getAsString()));
+                                   fileInfoJson.get("sha1").getAsString(),
+                                   parseGroup(fileInfoJson.get("group")),
+                                   parsePatches(fileInfoJson.getAsJsonArray("patches")),
+                                   parseEncodings(fileInfoJson.getAsJsonArray("encodings")),
+                                   parseChunks(fileInfoJson.getAsJsonObject("chunks")),
+                                   parseJarEntries(fileInfoJson.getAsJsonObject("jar"))));
         }
 
         return new FileSet(infos);
     }
 
+    private Group parseGroup(JsonElement groupJson) {
+        return Group.parse(groupJson == null ? null : groupJson.getAsString());
+    }
+
+    private List<Patch> parsePatches(JsonArray patchesJson) {
+        List<Patch> patches = new ArrayList<>();
+        if (patchesJson == null)
+            return patches;
+
+        for (JsonElement element : patchesJson) {
+            JsonObject patchJson = element.getAsJsonObject();
+
+            patches.add(new Patch(patchJson.get("from-sha1").getAsString(),
+                                  patchJson.get("format").getAsString(),
+                                  new MemoryUnit(patchJson.get("size").getAsLong()),
+                                  patchJson.get("url").getAsString()));
+        }
+
+        return patches;
+    }
+
+    private List<Encoding> parseEncodings(JsonArray encodingsJson) {
+        List<Encoding> encodings = new ArrayList<>();
+        if (encodingsJson == null)
+            return encodings;
+
+        for (JsonElement element : encodingsJson) {
+            JsonObject encodingJson = element.getAsJsonObject();
+
+            encodings.add(new Encoding(encodingJson.get("encoding").getAsString(),
+                                       new MemoryUnit(encodingJson.get("size").getAsLong()),
+                                       encodingJson.get("url").getAsString()));
+        }
+
+        return encodings;
+    }
+
+    private ChunkList parseChunks(JsonObject chunksJson) {
+        if (chunksJson == null)
+            return null;
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (JsonElement element : chunksJson.getAsJsonArray("list")) {
+            JsonObject chunkJson = element.getAsJsonObject();
+
+            chunks.add(new Chunk(chunkJson.get("sha1").getAsString(),
+                                 chunkJson.get("size").getAsInt()));
+        }
+
+        return new ChunkList(chunksJson.get("url").getAsString(),
+                             chunksJson.get("min").getAsInt(),
+                             chunksJson.get("avg").getAsInt(),
+                             chunksJson.get("max").getAsInt(),
+                             chunks);
+    }
+
+    private JarEntryList parseJarEntries(JsonObject jarJson) {
+        if (jarJson == null)
+            return null;
+
+        List<JarEntryInfo> entries = new ArrayList<>();
+        for (JsonElement element : jarJson.getAsJsonArray("entries")) {
+            JsonObject entryJson = element.getAsJsonObject();
+
+            entries.add(new JarEntryInfo(entryJson.get("name").getAsString(),
+                                         entryJson.get("method").getAsInt(),
+                                         entryJson.get("time").getAsLong(),
+                                         entryJson.get("crc").getAsLong(),
+                                         entryJson.get("size").getAsLong(),
+                                         entryJson.get("compressedSize").getAsLong(),
+                                         entryJson.get("sha1").getAsString()));
+        }
+
+        return new JarEntryList(jarJson.get("url").getAsString(), entries);
+    }
+
     public UpdateInformation get(Version current) throws InterruptedException {
         try {
             future.get();
@@ -160,6 +299,10 @@ public class UpdateInformationGrabber {
                 throw new RuntimeException(ee.getCause());
         }
 
+        return updateFrom(current);
+    }
+
+    UpdateInformation updateFrom(Version current) {
         VersionInfo latest = versions.get(0);
         FileSet diffSet = computeDiffSet(current, latest);
         UpdateInformation info = new UpdateInformation(latest.version, current,
@@ -169,18 +312,16 @@ public class UpdateInformationGrabber {
 
     private FileSet computeDiffSet(Version current, VersionInfo latest) {
         List<FileInfo> diffSetList = new ArrayList<>();
+        Set<String> inDiffSet = new HashSet<>();
         for (VersionInfo aVersion : versions) {
             if (!aVersion.version.isGreaterThan(current))
                 break;
 
             for (FileInfo aFile : aVersion.diffSet.getFiles()) {
-                boolean alreadyInDiffSet = false;
-                for (FileInfo check : diffSetList)
-                    if (aFile.getName().equals(check.getName()))
-                        alreadyInDiffSet = true;
-
-                if (!alreadyInDiffSet && latest.fullSet.getFiles().contains(aFile))
+                if (!inDiffSet.contains(aFile.getName()) && latest.fullSet.contains(aFile)) {
                     diffSetList.add(aFile);
+                    inDiffSet.add(aFile.getName());
+                }
             }
         }
 
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class GenerationsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void activatedGenerationIsCurrentAfterReload() throws Exception {
+        Path root = folder.newFolder().toPath();
+        Generations generations = new Generations(root);
+
+        Path staged = generations.stage();
+        generations.activate(staged);
+
+        assertThat(new Generations(root).getCurrent(), is(staged));
+    }
+
+    @Test
+    public void rollbackSwapsBackToPreviousAndItsVersion() throws Exception {
+        Path root = folder.newFolder().toPath();
+        Generations generations = new Generations(root);
+        Path first = generations.stage();
+        generations.setVersion(first, Version.parse("1.0.0"));
+        generations.activate(first);
+        Path second = generations.stage();
+        generations.setVersion(second, Version.parse("2.0.0"));
+        generations.activate(second);
+        assertThat(new VersionRWer(root).getVersion().toString(), is("2.0.0"));
+
+        assertThat(generations.rollback(), is(true));
+        assertThat(new Generations(root).getCurrent(), is(first));
+        assertThat(new Generations(root).getPrevious(), is(second));
+        assertThat(new VersionRWer(root).getVersion().toString(), is("1.0.0"));
+    }
+
+    @Test
+    public void rollbackNeedsAPreviousGeneration() throws Exception {
+        Path root = folder.newFolder().toPath();
+        Generations generations = new Generations(root);
+        generations.activate(generations.stage());
+
+        assertThat(generations.rollback(), is(false));
+    }
+
+    @Test
+    public void keepsOnlyCurrentAndPrevious() throws Exception {
+        Path root = folder.newFolder().toPath();
+        Generations generations = new Generations(root);
+        Path first = generations.stage();
+        generations.activate(first);
+        generations.activate(generations.stage());
+        generations.activate(generations.stage());
+
+        assertThat(Files.exists(first), is(false));
+    }
+
+    @Test
+    public void generationForNextStartOnlyActivatesWhenAskedTo() throws Exception {
+        Path root = folder.newFolder().toPath();
+        Generations generations = new Generations(root);
+        Path first = generations.stage();
+        generations.activate(first);
+        Path second = generations.stage();
+        generations.activateOnNextStart(second);
+
+        assertThat(new Generations(root).getCurrent(), is(first));
+
+        Generations nextStart = new Generations(root);
+        assertThat(nextStart.activatePending(), is(true));
+        assertThat(nextStart.getCurrent(), is(second));
+        assertThat(new Generations(root).activatePending(), is(false));
+    }
+
+    @Test
+    public void legacyBinIsCurrentUntilReplaced() throws Exception {
+        Path root = folder.newFolder().toPath();
+        Files.createDirectory(root.resolve("bin"));
+
+        assertThat(new Generations(root).getCurrent(), is(root.resolve("bin")));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis;
+
+import me.lachlanap.summis.MemoryUnit.Prefix;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class MemoryUnitTest {
+
+    @Test
+    public void parsePlainBytes() {
+        MemoryUnit unit = MemoryUnit.parse("512");
+
+        assertThat(unit.inBytes(), is(512L));
+    }
+
+    @Test
+    public void parseWithPrefix() {
+        MemoryUnit unit = MemoryUnit.parse("16MB");
+
+        assertThat(unit, is(new MemoryUnit(Prefix.Mega, 16)));
+    }
+
+    @Test
+    public void parseIgnoresCaseAndSpaces() {
+        MemoryUnit unit = MemoryUnit.parse(" 64 kb ");
+
+        assertThat(unit, is(new MemoryUnit(Prefix.Kilo, 64)));
+    }
+
+    @Test
+    public void parseFraction() {
+        MemoryUnit unit = MemoryUnit.parse("1.5KB");
+
+        assertThat(unit.inBytes(), is(1536L));
+    }
+
+    @Test
+    public void parseToStringOutput() {
+        MemoryUnit unit = new MemoryUnit(Prefix.Giga, 3);
+
+        assertThat(MemoryUnit.parse(unit.toString()), is(unit));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseUnknownUnit() {
+        MemoryUnit.parse("12 parsecs");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.FileSet;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class UpdateInformationTest {
+
+    private static final int FILES = 100000;
+
+    @Test(timeout = 10000)
+    public void lookupsScaleToLargeFileSets() {
+        List<FileInfo> infos = new ArrayList<>();
+        for (int i = 0; i < FILES; i++)
+            infos.add(file(i, i));
+        FileSet fileSet = new FileSet(infos);
+
+        for (int i = 0; i < FILES; i++) {
+            assertTrue(fileSet.contains(file(i, i)));
+            assertFalse(fileSet.contains(file(i, i + 1)));
+            assertThat(fileSet.getByName("file" + i).getSHA1Digest(), is(sha1(i)));
+        }
+        assertThat(fileSet.getTotalSize().inBytes(), is(FILES * 10L));
+    }
+
+    @Test
+    public void firstEntryWinsForARepeatedName() {
+        FileSet fileSet = new FileSet(Arrays.asList(file(1, 7), file(2, 7), file(1, 8)));
+
+        assertThat(fileSet.getByName("file1").getSHA1Digest(), is(sha1(7)));
+        assertThat(fileSet.getByName("file2").getSHA1Digest(), is(sha1(7)));
+        assertThat(fileSet.getByName("file3"), is((FileInfo) null));
+        assertFalse(fileSet.contains(file(1, 8)));
+    }
+
+    private static FileInfo file(int name, int content) {
+        return new FileInfo("file" + name, new MemoryUnit(10), "http://localhost/file" + name,
+                            String.format("%032x", content), sha1(content));
+    }
+
+    private static String sha1(int content) {
+        return String.format("%040x", content);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.server.LocalUpdateServer;
+import me.lachlanap.summis.transport.Mirror;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class AsyncDownloadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalUpdateServer server;
+    private AsyncHttpEngine engine;
+    private TransferScheduler scheduler;
+    private CommitStage commitStage;
+    private Path tmpRoot;
+    private Path binaryRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalUpdateServer();
+        engine = new AsyncHttpEngine(4, new BandwidthLimiter(new MemoryUnit(0)));
+        scheduler = new TransferScheduler(2, 2);
+
+        Path root = folder.getRoot().toPath();
+        tmpRoot = folder.newFolder("tmp").toPath();
+        binaryRoot = folder.newFolder("bin").toPath();
+        commitStage = new CommitStage(binaryRoot, scheduler, 4, new FileVerifier(scheduler.getDigestHelperExecutor()),
+                                      new InstallIndex(root.resolve("files.index"), binaryRoot),
+                                      new ContentStore(root.resolve("cache"), new MemoryUnit(0)), new NullDownloadListener());
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void chunkedBodiesArriveWhole() throws Exception {
+        byte[] content = randomBytes(1, 3 * 1024 * 1024);
+        server.put("files/a.bin", content);
+        server.setChunked(true);
+
+        FileOutcome outcome = fetch(info("a.bin", "files/a.bin", content), null);
+
+        assertThat(outcome.isInstalled(), is(true));
+        assertArrayEquals(content, Files.readAllBytes(binaryRoot.resolve("a.bin")));
+    }
+
+    @Test
+    public void redirectsAreFollowed() throws Exception {
+        byte[] content = randomBytes(2, 100 * 1024);
+        server.put("files/a.bin", content);
+        server.redirect("old/a.bin", "/files/a.bin");
+
+        FileOutcome outcome = fetch(info("a.bin", "old/a.bin", content), null);
+
+        assertThat(outcome.isInstalled(), is(true));
+        assertArrayEquals(content, Files.readAllBytes(binaryRoot.resolve("a.bin")));
+        assertThat(server.getRequests(), is(2));
+    }
+
+    @Test
+    public void redirectTheEngineCannotFollowFallsBackToBlocking() throws Exception {
+        byte[] content = randomBytes(3, 1024);
+        server.redirect("files/a.bin", "https://127.0.0.1:1/files/a.bin");
+        final AtomicBoolean fellBack = new AtomicBoolean();
+
+        FileOutcome outcome = fetch(info("a.bin", "files/a.bin", content), new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                fellBack.set(true);
+                throw new IOException("fell back");
+            }
+        });
+
+        assertThat(fellBack.get(), is(true));
+        assertThat(outcome.getFailure().getMessage(), is("fell back"));
+    }
+
+    @Test
+    public void resumesFromWhatIsAlreadyInTmp() throws Exception {
+        byte[] content = randomBytes(4, 200 * 1024);
+        server.put("files/a.bin", content);
+        FileInfo info = info("a.bin", "files/a.bin", content);
+
+        int half = content.length / 2;
+        try (OutputStream os = new PartialDownload(tmpRoot.resolve("a.bin"), info)
+                .start("\"" + DigestUtils.shaHex(content) + "\"", false)) {
+            os.write(content, 0, half);
+        }
+
+        FileOutcome outcome = fetch(info, null);
+
+        assertThat(outcome.isInstalled(), is(true));
+        assertArrayEquals(content, Files.readAllBytes(binaryRoot.resolve("a.bin")));
+        assertThat(server.getRangeRequests(), is(1));
+        assertThat(server.getBytesServed(), is((long) (content.length - half)));
+    }
+
+    private FileOutcome fetch(final FileInfo info, final Callable<Void> fallback) throws InterruptedException {
+        final FileTransfer transfer = new FileTransfer(info, new RetryPolicy(1, 0, 0), scheduler);
+        final Mirror mirror = new Mirror(server.getAddress(), server.getAddress());
+        transfer.start(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                new AsyncDownload(info, mirror, new URL(info.getUrl()), engine,
+                                  new PartialDownload(tmpRoot.resolve(info.getName()), info),
+                                  new TransferMeter(new NullDownloadListener(), new Metrics()), commitStage, scheduler,
+                                  transfer, fallback).start();
+                return null;
+            }
+        });
+        return transfer.await();
+    }
+
+    private FileInfo info(String name, String path, byte[] content) {
+        return new FileInfo(name, new MemoryUnit(content.length), server.getAddress() + path,
+                            DigestUtils.md5Hex(content), DigestUtils.shaHex(content));
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
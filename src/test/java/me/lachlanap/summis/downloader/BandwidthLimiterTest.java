@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import me.lachlanap.summis.MemoryUnit;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class BandwidthLimiterTest {
+
+    private static final long RATE = 100 * 1024;
+
+    @Test
+    public void steadyTransfersRunAtTheRate() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(new MemoryUnit(RATE), clock);
+
+        for (int i = 0; i < 500; i++)
+            limiter.acquire(1024);
+
+        assertSeconds(5, clock.elapsedNanos());
+    }
+
+    @Test
+    public void idleTimeOnlyBuildsUpAFifthOfASecond() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(new MemoryUnit(RATE), clock);
+        clock.advance(10000);
+
+        long idle = clock.elapsedNanos();
+        limiter.acquire(RATE / 5);
+        assertThat(clock.elapsedNanos(), is(idle));
+
+        limiter.acquire(RATE);
+        assertSeconds(1, clock.elapsedNanos() - idle);
+    }
+
+    @Test
+    public void threadsShareTheRate() throws Exception {
+        FakeClock clock = new FakeClock();
+        final BandwidthLimiter limiter = new BandwidthLimiter(new MemoryUnit(RATE), clock);
+        final List<Throwable> failures = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; i++)
+                            limiter.acquire(1024);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(failures.isEmpty(), is(true));
+        assertSeconds(4, clock.elapsedNanos());
+    }
+
+    @Test
+    public void unlimitedPassesStraightThrough() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(new MemoryUnit(0), clock);
+        byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (InputStream in = limiter.throttle(new ByteArrayInputStream(content));
+             OutputStream out = limiter.throttle(written)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        }
+
+        assertArrayEquals(content, written.toByteArray());
+        assertThat(clock.elapsedNanos(), is(0L));
+        assertThat(limiter.millisUntilAvailable(), is(0L));
+    }
+
+    @Test
+    public void changingTheRateMidTransferTakesEffect() throws Exception {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(new MemoryUnit(RATE), clock);
+        byte[] content = new byte[(int) (RATE * 5)];
+
+        try (InputStream in = limiter.throttle(new ByteArrayInputStream(content))) {
+            byte[] buffer = new byte[1024];
+            long read = 0;
+            while (read < RATE) {
+                read += in.read(buffer);
+                if (read == RATE)
+                    limiter.setLimit(new MemoryUnit(RATE * 4).toString());
+            }
+            long atSwitch = clock.elapsedNanos();
+            assertSeconds(1, atSwitch);
+
+            long rest = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                rest += count;
+            assertThat(rest, is(RATE * 4));
+            assertSeconds(1, clock.elapsedNanos() - atSwitch);
+        }
+        assertThat(limiter.getLimit(), is("400KB"));
+    }
+
+    @Test
+    public void limitCanBeSetOverJmx() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(new MemoryUnit(RATE));
+        limiter.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(BandwidthLimiter.OBJECT_NAME);
+            assertThat((String) server.getAttribute(name, "Limit"), is("100KB"));
+
+            server.setAttribute(name, new Attribute("Limit", "2MB"));
+            assertThat(limiter.getRate(), is(new MemoryUnit(MemoryUnit.Prefix.Mega, 2)));
+
+            server.setAttribute(name, new Attribute("Limit", "0"));
+            assertThat(limiter.isLimited(), is(false));
+        } finally {
+            limiter.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(new ObjectName(BandwidthLimiter.OBJECT_NAME)));
+    }
+
+    private static void assertSeconds(double expected, long nanos) {
+        double seconds = nanos / 1e9;
+        assertTrue("took " + seconds + "s, expected " + expected + "s",
+                   Math.abs(seconds - expected) <= expected * 0.05);
+    }
+
+    /**
+     * Only moves when the limiter waits on it, or when told to.
+     */
+    private static class FakeClock implements BandwidthLimiter.Clock {
+
+        private final AtomicLong now = new AtomicLong();
+
+        @Override
+        public long nanoTime() {
+            return now.get();
+        }
+
+        @Override
+        public void waitOn(Object monitor, long millis) {
+            advance(millis);
+        }
+
+        void advance(long millis) {
+            now.addAndGet(millis * 1000000);
+        }
+
+        long elapsedNanos() {
+            return now.get();
+        }
+    }
+}
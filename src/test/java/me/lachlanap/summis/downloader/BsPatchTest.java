@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class BsPatchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliesDiffAndExtra() throws Exception {
+        byte[] old = "hello world".getBytes(StandardCharsets.US_ASCII);
+        byte[] expected = "hello World!!".getBytes(StandardCharsets.US_ASCII);
+
+        // Diff all 11 old bytes, then add "!!"
+        byte[] diff = new byte[11];
+        for (int i = 0; i < diff.length; i++)
+            diff[i] = (byte) (expected[i] - old[i]);
+        byte[] patch = patch(expected.length, new long[]{11, 2, 0}, diff, "!!".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(new String(apply(old, patch), StandardCharsets.US_ASCII), is("hello World!!"));
+    }
+
+    @Test
+    public void seeksBackwardsInOldFile() throws Exception {
+        byte[] old = "abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        // "def" then seek back six to copy "abc"
+        byte[] patch = patch(6, new long[]{0, 0, 3, 3, 0, -6, 3, 0, 0}, new byte[6], new byte[0]);
+
+        assertThat(new String(apply(old, patch), StandardCharsets.US_ASCII), is("defabc"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws Exception {
+        apply(new byte[1], "BSDIFF40 and then some more bytes".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private byte[] apply(byte[] old, byte[] patch) throws Exception {
+        Path oldFile = folder.newFile().toPath();
+        Path patchFile = folder.newFile().toPath();
+        Files.write(oldFile, old);
+        Files.write(patchFile, patch);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BsPatch.apply(oldFile, patchFile, out);
+        return out.toByteArray();
+    }
+
+    private byte[] patch(long newSize, long[] control, byte[] diff, byte[] extra) throws IOException {
+        ByteArrayOutputStream controlBlock = new ByteArrayOutputStream();
+        for (long value : control)
+            controlBlock.write(offset(value));
+        byte[] controlBytes = gzip(controlBlock.toByteArray());
+        byte[] diffBytes = gzip(diff);
+
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        patch.write("BSDIFFGZ".getBytes(StandardCharsets.US_ASCII));
+        patch.write(offset(controlBytes.length));
+        patch.write(offset(diffBytes.length));
+        patch.write(offset(newSize));
+        patch.write(controlBytes);
+        patch.write(diffBytes);
+        patch.write(gzip(extra));
+        return patch.toByteArray();
+    }
+
+    private byte[] offset(long value) {
+        long magnitude = Math.abs(value);
+        byte[] b = new byte[8];
+        for (int i = 0; i < 8; i++)
+            b[i] = (byte) (magnitude >>> (8 * i));
+        if (value < 0)
+            b[7] |= 0x80;
+        return b;
+    }
+
+    private byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.ChunkList;
+import me.lachlanap.summis.UpdateInformation.Encoding;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.Group;
+import me.lachlanap.summis.UpdateInformation.JarEntryList;
+import me.lachlanap.summis.UpdateInformation.Patch;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class CodecsTest {
+
+    private static final byte[] CONTENT = compressibleBytes(1, 300 * 1024);
+
+    @Test
+    public void gzipRoundTrips() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(compressed)) {
+            os.write(CONTENT);
+        }
+
+        assertDecodesToContent("gzip", compressed.toByteArray());
+    }
+
+    @Test
+    public void deflateRoundTrips() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream os = new DeflaterOutputStream(compressed)) {
+            os.write(CONTENT);
+        }
+
+        assertDecodesToContent("deflate", compressed.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownEncodingIsRejected() throws Exception {
+        Codecs.decode("GZIP", new ByteArrayInputStream(new byte[0]));
+    }
+
+    @Test
+    public void onlyKnownEncodingsAreChosen() {
+        FileInfo info = infoWith(new Encoding("xz", new MemoryUnit(100), "http://example/a.jar.xz"),
+                                 new Encoding("Gzip", new MemoryUnit(200), "http://example/a.jar.Gz"),
+                                 new Encoding("gzip", new MemoryUnit(300), "http://example/a.jar.gz"));
+
+        assertThat(Codecs.isSupported("xz"), is(false));
+        assertThat(Codecs.choose(info).getEncoding(), is("gzip"));
+    }
+
+    @Test
+    public void encodingNoSmallerThanTheFileIsNotChosen() {
+        FileInfo info = infoWith(new Encoding("gzip", new MemoryUnit(CONTENT.length), "http://example/a.jar.gz"));
+
+        assertNull(Codecs.choose(info));
+    }
+
+    private static void assertDecodesToContent(String encoding, byte[] compressed) throws IOException {
+        Digests digests = new Digests();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (InputStream is = Codecs.decode(encoding, new ByteArrayInputStream(compressed));
+             OutputStream os = digests.digesting(decoded)) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                os.write(buffer, 0, read);
+        }
+
+        assertArrayEquals(CONTENT, decoded.toByteArray());
+        assertThat(digests.matches(infoWith()), is(true));
+    }
+
+    private static FileInfo infoWith(Encoding... encodings) {
+        return new FileInfo("a.jar", new MemoryUnit(CONTENT.length), "http://example/a.jar",
+                            DigestUtils.md5Hex(CONTENT), DigestUtils.shaHex(CONTENT), Group.BOOT,
+                            Collections.<Patch>emptyList(), Arrays.asList(encodings), (ChunkList) null, (JarEntryList) null);
+    }
+
+    private static byte[] compressibleBytes(long seed, int length) {
+        Random random = new Random(seed);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        return bytes;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class CommitStageTest {
+
+    private static final byte[] CONTENT = "the real contents".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TransferScheduler scheduler;
+    private InstallIndex installIndex;
+    private Path tmpRoot;
+    private Path binaryRoot;
+    private FileInfo info;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new TransferScheduler(2, 1);
+        tmpRoot = folder.newFolder("tmp").toPath();
+        binaryRoot = folder.newFolder("bin").toPath();
+        installIndex = new InstallIndex(folder.getRoot().toPath().resolve("files.index"), binaryRoot);
+        info = new FileInfo("a.jar", new MemoryUnit(CONTENT.length), "http://example/a.jar",
+                            DigestUtils.md5Hex(CONTENT), DigestUtils.shaHex(CONTENT));
+    }
+
+    @Test
+    public void matchingFileIsInstalled() throws Exception {
+        PartialDownload partial = downloaded(CONTENT);
+
+        FileOutcome outcome = commit(commitStage(4), partial, digestsOf(partial));
+
+        assertThat(outcome.isInstalled(), is(true));
+        assertArrayEquals(CONTENT, Files.readAllBytes(binaryRoot.resolve("a.jar")));
+        assertThat(installIndex.isVerified(info), is(true));
+    }
+
+    @Test
+    public void digestMismatchDiscardsThePartialFile() throws Exception {
+        byte[] corrupt = Arrays.copyOf(CONTENT, CONTENT.length);
+        corrupt[0] ^= 1;
+        PartialDownload partial = downloaded(corrupt);
+
+        FileOutcome outcome = commit(commitStage(4), partial, digestsOf(partial));
+
+        assertThat(outcome.isInstalled(), is(false));
+        assertThat(Files.exists(partial.getFile()), is(false));
+        assertThat(Files.exists(binaryRoot.resolve("a.jar")), is(false));
+        assertThat(installIndex.isVerified(info), is(false));
+    }
+
+    @Test
+    public void mismatchFoundByReadingBackIsDiscardedToo() throws Exception {
+        byte[] corrupt = Arrays.copyOf(CONTENT, CONTENT.length);
+        corrupt[0] ^= 1;
+        PartialDownload partial = downloaded(corrupt);
+
+        FileOutcome outcome = commit(commitStage(4), partial, null);
+
+        assertThat(outcome.isInstalled(), is(false));
+        assertThat(Files.exists(partial.getFile()), is(false));
+        assertThat(Files.exists(binaryRoot.resolve("a.jar")), is(false));
+    }
+
+    @Test
+    public void commitLaterWaitsForRoomInTheBacklog() throws Exception {
+        final CommitStage commitStage = commitStage(1);
+        final CountDownLatch hashingBusy = new CountDownLatch(1);
+        scheduler.submitHashing(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                hashingBusy.await();
+                return null;
+            }
+        }, 0);
+        while (scheduler.getHashingInFlight() == 0)
+            Thread.sleep(1);
+
+        final PartialDownload first = downloaded(CONTENT);
+        final FileTransfer firstTransfer = new FileTransfer(info, new RetryPolicy(1, 0, 0), scheduler);
+        commitStage.commitLater(info, first, digestsOf(first), firstTransfer);
+
+        final FileInfo other = new FileInfo("b.jar", info.getSize(), info.getUrl(), info.getMD5Digest(), info.getSHA1Digest());
+        final PartialDownload second = new PartialDownload(tmpRoot.resolve("b.jar"), other);
+        write(second, CONTENT);
+        final FileTransfer secondTransfer = new FileTransfer(other, new RetryPolicy(1, 0, 0), scheduler);
+        Thread committer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    commitStage.commitLater(other, second, digestsOf(second), secondTransfer);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        committer.start();
+
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (committer.getState() != Thread.State.WAITING && System.currentTimeMillis() < giveUp)
+            Thread.sleep(1);
+        assertThat(committer.getState(), is(Thread.State.WAITING));
+
+        hashingBusy.countDown();
+        committer.join(5000);
+        assertThat(committer.isAlive(), is(false));
+    }
+
+    private CommitStage commitStage(int backlog) {
+        return new CommitStage(binaryRoot, scheduler, backlog, new FileVerifier(scheduler.getDigestHelperExecutor()),
+                               installIndex, new ContentStore(folder.getRoot().toPath().resolve("cache"), new MemoryUnit(0)),
+                               new NullDownloadListener());
+    }
+
+    private PartialDownload downloaded(byte[] content) throws Exception {
+        PartialDownload partial = new PartialDownload(tmpRoot.resolve("a.jar"), info);
+        write(partial, content);
+        return partial;
+    }
+
+    private static void write(PartialDownload partial, byte[] content) throws Exception {
+        try (OutputStream os = partial.start(null, false)) {
+            os.write(content);
+        }
+    }
+
+    private static Digests digestsOf(PartialDownload partial) throws Exception {
+        return Digests.of(partial.getFile());
+    }
+
+    private FileOutcome commit(final CommitStage commitStage, final PartialDownload partial, final Digests digests) throws Exception {
+        final FileTransfer transfer = new FileTransfer(info, new RetryPolicy(1, 0, 0), scheduler);
+        transfer.start(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                commitStage.commit(info, partial, digests, transfer);
+                return null;
+            }
+        });
+        return transfer.await();
+    }
+}
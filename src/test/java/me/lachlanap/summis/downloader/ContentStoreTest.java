@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class ContentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fetchesWhatWasPut() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        ContentStore store = new ContentStore(dir.resolve("cache"), new MemoryUnit(1024));
+        FileInfo info = write(dir.resolve("a.jar"), "some jar");
+
+        store.put(info, dir.resolve("a.jar"));
+        boolean fetched = store.fetch(info, dir.resolve("copy.jar"));
+
+        assertThat(fetched, is(true));
+        assertThat(new String(Files.readAllBytes(dir.resolve("copy.jar")), StandardCharsets.UTF_8), is("some jar"));
+        assertThat(store.getHits(), is(1L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        ContentStore store = new ContentStore(dir.resolve("cache"), new MemoryUnit(20));
+        FileInfo a = write(dir.resolve("a"), "0123456789");
+        FileInfo b = write(dir.resolve("b"), "abcdefghij");
+        FileInfo c = write(dir.resolve("c"), "ABCDEFGHIJ");
+
+        store.put(a, dir.resolve("a"));
+        store.put(b, dir.resolve("b"));
+        store.fetch(a, dir.resolve("a2"));
+        store.put(c, dir.resolve("c"));
+
+        assertThat(store.fetch(a, dir.resolve("a3")), is(true));
+        assertThat(store.fetch(b, dir.resolve("b2")), is(false));
+        assertThat(store.fetch(c, dir.resolve("c2")), is(true));
+    }
+
+    private FileInfo write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Digests digests = Digests.of(file);
+        return new FileInfo(file.getFileName().toString(), new MemoryUnit(Files.size(file)), "",
+                            digests.getMD5Digest(), digests.getSHA1Digest());
+    }
+}
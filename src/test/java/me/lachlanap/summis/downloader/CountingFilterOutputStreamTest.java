@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import me.lachlanap.summis.MemoryUnit;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class CountingFilterOutputStreamTest {
+
+    @Test
+    public void singleByteWritesAreCounted() throws Exception {
+        TallyListener listener = new TallyListener();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        try (OutputStream os = new CountingFilterOutputStream(written, listener)) {
+            for (int i = 0; i < 5000; i++)
+                os.write(i);
+            // Progress is reported as it goes, not only on close
+            assertThat(listener.downloaded >= 4096, is(true));
+        }
+
+        assertThat(written.size(), is(5000));
+        assertThat(listener.downloaded, is(5000L));
+        assertThat(listener.received, is(5000L));
+    }
+
+    @Test
+    public void decompressedBytesAreNotCountedAsReceived() throws Exception {
+        TallyListener listener = new TallyListener();
+
+        try (OutputStream os = new CountingFilterOutputStream(new ByteArrayOutputStream(), listener, false)) {
+            os.write(1);
+            os.write(new byte[3000], 0, 3000);
+        }
+
+        assertThat(listener.downloaded, is(3001L));
+        assertThat(listener.received, is(0L));
+    }
+
+    private static class TallyListener extends NullDownloadListener {
+
+        long downloaded;
+        long received;
+
+        @Override
+        public void downloadedSome(MemoryUnit amount) {
+            downloaded += amount.inBytes();
+        }
+
+        @Override
+        public void receivedSome(MemoryUnit amount) {
+            received += amount.inBytes();
+        }
+    }
+}
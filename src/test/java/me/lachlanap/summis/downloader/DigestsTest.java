@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class DigestsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void digestingAStreamMatchesDigestingTheBytes() throws Exception {
+        byte[] content = randomBytes(1, 200 * 1024 + 17);
+
+        Digests digests = new Digests();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (OutputStream os = digests.digesting(copy)) {
+            os.write(content[0]);
+            os.write(content, 1, 1000);
+            os.write(content, 1001, content.length - 1001);
+        }
+
+        assertArrayEquals(content, copy.toByteArray());
+        assertThat(digests.getMD5Digest(), is(DigestUtils.md5Hex(content)));
+        assertThat(digests.getSHA1Digest(), is(DigestUtils.shaHex(content)));
+        assertThat(digests.matches(infoOf(content)), is(true));
+    }
+
+    @Test
+    public void resumedDownloadDigestsLikeAWholeOne() throws Exception {
+        byte[] content = randomBytes(2, 300 * 1024);
+        Path file = folder.newFile().toPath();
+        Files.write(file, content);
+
+        int resumedAt = 123457;
+        Digests digests = Digests.ofPrefix(file, resumedAt);
+        digests.update(content, resumedAt, content.length - resumedAt);
+
+        assertThat(digests.matches(infoOf(content)), is(true));
+        assertThat(Digests.of(file).matches(infoOf(content)), is(true));
+    }
+
+    @Test
+    public void differentBytesDoNotMatch() throws Exception {
+        byte[] content = randomBytes(3, 1024);
+        Digests digests = new Digests();
+        digests.update(content, 0, content.length - 1);
+
+        assertThat(digests.matches(infoOf(content)), is(false));
+    }
+
+    private static FileInfo infoOf(byte[] content) {
+        return new FileInfo("a.jar", new MemoryUnit(content.length), "http://example/a.jar",
+                            DigestUtils.md5Hex(content), DigestUtils.shaHex(content));
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.HttpTransport;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import me.lachlanap.config.Configuration;
+import me.lachlanap.summis.Generations;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation;
+import me.lachlanap.summis.Version;
+import me.lachlanap.summis.VersionRWer;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.server.LocalUpdateServer;
+import me.lachlanap.summis.transport.HttpTransports;
+import me.lachlanap.summis.transport.MirrorSet;
+import me.lachlanap.summis.update.UpdateInformationGrabber;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class DownloaderTest {
+
+    private static final String PROJECT = "demo";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalUpdateServer server;
+    private HttpTransport transport;
+    private Path installRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalUpdateServer();
+        transport = HttpTransports.pooled(4, 4);
+        installRoot = folder.getRoot().toPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void liveGenerationIsLeftAloneWhileDeferredFilesDownload() throws Exception {
+        Map<String, byte[]> first = new LinkedHashMap<>();
+        first.put("app.jar", new byte[]{1});
+        first.put("assets.jar", new byte[]{2});
+        server.publish(PROJECT, "1.0.0", first, Collections.singleton("assets.jar"));
+        Downloader install = downloader(Version.ZERO);
+        install.go();
+        install.awaitDeferred();
+
+        Map<String, byte[]> second = new LinkedHashMap<>();
+        second.put("app.jar", new byte[]{3});
+        second.put("assets.jar", new byte[]{4});
+        server.publish(PROJECT, "2.0.0", second, Collections.singleton("assets.jar"));
+        CountDownLatch release = new CountDownLatch(1);
+        server.holdUntil("files/" + PROJECT + "/2.0.0/assets.jar", release);
+
+        Downloader update = downloader(Version.parse("1.0.0"));
+        update.go();
+        Path live = new Generations(installRoot).getCurrent();
+        assertThat(update.hasDeferred(), is(true));
+        assertArrayEquals(new byte[]{3}, Files.readAllBytes(live.resolve("app.jar")));
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(live.resolve("assets.jar")));
+        // Not updated until the deferred files are in
+        assertThat(new VersionRWer(installRoot).getVersion().toString(), is("1.0.0"));
+
+        release.countDown();
+        update.awaitDeferred();
+
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(live.resolve("assets.jar")));
+        Path current = new Generations(installRoot).getCurrent();
+        assertFalse(current.equals(live));
+        assertArrayEquals(new byte[]{3}, Files.readAllBytes(current.resolve("app.jar")));
+        assertArrayEquals(new byte[]{4}, Files.readAllBytes(current.resolve("assets.jar")));
+        assertThat(new VersionRWer(installRoot).getVersion().toString(), is("2.0.0"));
+    }
+
+    @Test
+    public void updateForNextStartWaitsForTheNextStart() throws Exception {
+        server.publish(PROJECT, "1.0.0", Collections.singletonMap("app.jar", new byte[]{1}));
+        downloader(Version.ZERO).go();
+        Path live = new Generations(installRoot).getCurrent();
+
+        server.publish(PROJECT, "2.0.0", Collections.singletonMap("app.jar", new byte[]{2}));
+        downloader(Version.parse("1.0.0")).goForNextStart();
+
+        Generations generations = new Generations(installRoot);
+        Path pending = generations.getPending();
+        assertThat(generations.getCurrent(), is(live));
+        assertFalse(pending == null || pending.equals(live));
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(live.resolve("app.jar")));
+        assertThat(new VersionRWer(installRoot).getVersion().toString(), is("1.0.0"));
+
+        Generations nextStart = new Generations(installRoot);
+        assertThat(nextStart.activatePending(), is(true));
+        assertThat(nextStart.getCurrent(), is(pending));
+        assertThat(nextStart.getPending(), is((Path) null));
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(pending.resolve("app.jar")));
+        assertThat(new VersionRWer(installRoot).getVersion().toString(), is("2.0.0"));
+    }
+
+    private Downloader downloader(Version current) throws InterruptedException {
+        Configuration config = Configuration.builder().loadBase("core.properties").build();
+        Metrics metrics = new Metrics();
+        UpdateInformationGrabber grabber = new UpdateInformationGrabber(Collections.singletonList(server.getAddress()),
+                                                                        PROJECT, transport, metrics);
+        grabber.begin();
+        UpdateInformation update = grabber.get(current);
+
+        return new Downloader(config, installRoot, update, transport,
+                              new MirrorSet(server.getAddress(), Collections.<String>emptyList()),
+                              new ContentStore(installRoot.resolve("cache"), new MemoryUnit(0)),
+                              new BandwidthLimiter(MemoryUnit.ZERO), new NullDownloadListener(), metrics, current.equals(Version.ZERO));
+    }
+}
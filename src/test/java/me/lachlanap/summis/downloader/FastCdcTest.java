@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class FastCdcTest {
+
+    private final FastCdc chunker = new FastCdc(2048, 8192, 65536);
+
+    @Test
+    public void chunksStayWithinBoundsAndCoverTheFile() throws Exception {
+        byte[] data = random(1024 * 1024, 1);
+
+        List<FastCdc.Cut> cuts = chunker.chunk(new ByteArrayInputStream(data));
+
+        long offset = 0;
+        for (int i = 0; i < cuts.size(); i++) {
+            FastCdc.Cut cut = cuts.get(i);
+            assertThat(cut.getOffset(), is(offset));
+            assertTrue(cut.getLength() <= 65536);
+            if (i < cuts.size() - 1)
+                assertTrue(cut.getLength() >= 2048);
+            offset += cut.getLength();
+        }
+        assertThat(offset, is((long) data.length));
+    }
+
+    @Test
+    public void insertionOnlyChangesNearbyChunks() throws Exception {
+        byte[] data = random(1024 * 1024, 2);
+        byte[] edited = new byte[data.length + 100];
+        System.arraycopy(data, 0, edited, 0, 500000);
+        System.arraycopy(random(100, 3), 0, edited, 500000, 100);
+        System.arraycopy(data, 500000, edited, 500100, data.length - 500000);
+
+        List<FastCdc.Cut> before = chunker.chunk(new ByteArrayInputStream(data));
+        List<FastCdc.Cut> after = chunker.chunk(new ByteArrayInputStream(edited));
+
+        Set<String> known = new HashSet<>();
+        for (FastCdc.Cut cut : before)
+            known.add(cut.getSHA1Digest());
+        int changed = 0;
+        for (FastCdc.Cut cut : after)
+            if (!known.contains(cut.getSHA1Digest()))
+                changed++;
+
+        assertTrue("changed " + changed + " of " + after.size(), changed <= 3);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
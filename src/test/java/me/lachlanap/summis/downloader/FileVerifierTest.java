@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class FileVerifierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService helper = Executors.newCachedThreadPool();
+
+    @Test
+    public void matchesSmallFile() throws Exception {
+        Path file = randomFile(1000);
+
+        assertThat(new FileVerifier(helper).matches(file, infoOf(file)), is(true));
+    }
+
+    @Test
+    public void matchesLargeFile() throws Exception {
+        // Digested in parallel, over several buffers with the last one partial
+        Path file = randomFile(10 * 1024 * 1024 + 17);
+
+        assertThat(new FileVerifier(helper).matches(file, infoOf(file)), is(true));
+    }
+
+    @Test
+    public void rejectsChangedFile() throws Exception {
+        Path file = randomFile(1000);
+        FileInfo info = infoOf(file);
+        byte[] content = Files.readAllBytes(file);
+        content[500]++;
+        Files.write(file, content);
+
+        assertThat(new FileVerifier(helper).matches(file, info), is(false));
+    }
+
+    private Path randomFile(int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path file = folder.newFile().toPath();
+        Files.write(file, content);
+        return file;
+    }
+
+    private FileInfo infoOf(Path file) throws Exception {
+        Digests digests = Digests.of(file);
+        return new FileInfo(file.getFileName().toString(), new MemoryUnit(Files.size(file)), "",
+                            digests.getMD5Digest(), digests.getSHA1Digest());
+    }
+}
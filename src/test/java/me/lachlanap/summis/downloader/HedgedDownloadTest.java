@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpTransport;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.server.LocalUpdateServer;
+import me.lachlanap.summis.transport.HttpTransports;
+import me.lachlanap.summis.transport.Mirror;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Races between a primary and a backup {@link LocalUpdateServer}, one of them throttled so that
+ * the other wins.
+ *
+ * @author Lachlan Phillips
+ */
+public class HedgedDownloadTest {
+
+    private static final String PATH = "files/demo/1.0.0/big.jar";
+    private static final int SIZE = 256 * 1024;
+    // Long enough that the slow copy is nowhere near done when the fast one finishes
+    private static final long SLOW_BYTES_PER_SECOND = 32 * 1024;
+    private static final long HEDGE_DELAY = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalUpdateServer primaryServer;
+    private LocalUpdateServer backupServer;
+    private HttpTransport transport;
+    private TransferScheduler scheduler;
+    private Metrics metrics;
+    private byte[] content;
+    private FileInfo info;
+
+    @Before
+    public void setUp() throws Exception {
+        primaryServer = new LocalUpdateServer();
+        backupServer = new LocalUpdateServer();
+        transport = HttpTransports.pooled(4, 8);
+        scheduler = new TransferScheduler(1, 1);
+        metrics = new Metrics();
+
+        content = new byte[SIZE];
+        new Random(1).nextBytes(content);
+        primaryServer.put(PATH, content);
+        backupServer.put(PATH, content);
+        info = new FileInfo("big.jar", new MemoryUnit(SIZE), primaryServer.getAddress() + PATH,
+                            DigestUtils.md5Hex(content), DigestUtils.shaHex(content));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.shutdown();
+        primaryServer.close();
+        backupServer.close();
+    }
+
+    @Test
+    public void fastBackupBeatsSlowPrimary() throws Exception {
+        primaryServer.setBytesPerSecond(SLOW_BYTES_PER_SECOND);
+        Mirror primary = new Mirror(primaryServer.getAddress(), primaryServer.getAddress());
+        Mirror backup = new Mirror(backupServer.getAddress(), primaryServer.getAddress());
+        HedgedDownload hedged = hedged(primary, backup);
+
+        Digests digests = hedged.run();
+
+        assertThat(hedged.getWinner().getMirror(), is(backup));
+        assertThat(digests.getSHA1Digest(), is(info.getSHA1Digest()));
+        assertArrayEquals(content, Files.readAllBytes(hedged.getWinner().getPartial().getFile()));
+        assertThat(Files.exists(tmp("big.jar")), is(false));
+        // Being beaten counts against the primary
+        assertThat(primary.isDown(), is(true));
+        assertThat(metrics.getCounters().get("download.hedges"), is(1L));
+    }
+
+    @Test
+    public void primaryThatFinishesFirstWins() throws Exception {
+        // Slow to answer, so the backup starts, but quick to send once it does
+        primaryServer.setLatencyMillis(300);
+        backupServer.setBytesPerSecond(SLOW_BYTES_PER_SECOND);
+        Mirror primary = new Mirror(primaryServer.getAddress(), primaryServer.getAddress());
+        Mirror backup = new Mirror(backupServer.getAddress(), primaryServer.getAddress());
+        HedgedDownload hedged = hedged(primary, backup);
+
+        Digests digests = hedged.run();
+
+        assertThat(hedged.getWinner().getMirror(), is(primary));
+        assertThat(digests.getSHA1Digest(), is(info.getSHA1Digest()));
+        assertArrayEquals(content, Files.readAllBytes(tmp("big.jar")));
+        assertThat(metrics.getCounters().get("download.hedges"), is(1L));
+        // The aborted backup cleans up after itself, without being held against its mirror
+        assertGone(tmp("big.jar.hedge"));
+        assertThat(backup.isDown(), is(false));
+    }
+
+    @Test
+    public void quickPrimaryIsNeverHedged() throws Exception {
+        Mirror primary = new Mirror(primaryServer.getAddress(), primaryServer.getAddress());
+        Mirror backup = new Mirror(backupServer.getAddress(), primaryServer.getAddress());
+        HedgedDownload hedged = new HedgedDownload(info, primary, backup, transport.createRequestFactory(),
+                                                   partial("big.jar"), partial("big.jar.hedge"),
+                                                   new TransferMeter(new NullDownloadListener(), metrics), new BandwidthLimiter(new MemoryUnit(0)),
+                                                   60000, scheduler, metrics);
+
+        hedged.run();
+
+        assertThat(hedged.getWinner().getMirror(), is(primary));
+        assertThat(backupServer.getRequests(), is(0));
+        assertNull(metrics.getCounters().get("download.hedges"));
+    }
+
+    private HedgedDownload hedged(Mirror primary, Mirror backup) {
+        HttpRequestFactory requestFactory = transport.createRequestFactory();
+        return new HedgedDownload(info, primary, backup, requestFactory,
+                                  partial("big.jar"), partial("big.jar.hedge"),
+                                  new TransferMeter(new NullDownloadListener(), metrics), new BandwidthLimiter(new MemoryUnit(0)),
+                                  HEDGE_DELAY, scheduler, metrics);
+    }
+
+    private PartialDownload partial(String name) {
+        return new PartialDownload(tmp(name), info);
+    }
+
+    private Path tmp(String name) {
+        return folder.getRoot().toPath().resolve(name);
+    }
+
+    /**
+     * The loser finds out it lost on another thread, so give it a moment.
+     */
+    private static void assertGone(Path file) throws InterruptedException {
+        for (int i = 0; i < 100 && Files.exists(file); i++)
+            Thread.sleep(50);
+        assertThat(Files.exists(file), is(false));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class InstallIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void remembersVerifiedFilesAcrossRuns() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        FileInfo info = write(dir.resolve("a.jar"), "some jar");
+
+        InstallIndex index = new InstallIndex(dir.resolve("files.index"), dir);
+        index.verified(info, index.stamp(info));
+        index.save();
+
+        assertThat(new InstallIndex(dir.resolve("files.index"), dir).isVerified(info), is(true));
+    }
+
+    @Test
+    public void forgetsModifiedFiles() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        FileInfo info = write(dir.resolve("a.jar"), "some jar");
+
+        InstallIndex index = new InstallIndex(dir.resolve("files.index"), dir);
+        index.verified(info, index.stamp(info));
+        Files.write(dir.resolve("a.jar"), "some jaR".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(dir.resolve("a.jar"), FileTime.fromMillis(0));
+
+        assertThat(index.isVerified(info), is(false));
+    }
+
+    @Test
+    public void knowsTheDigestOfALinkedCopyUntilItChanges() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        Path staged = folder.newFolder().toPath();
+        FileInfo info = write(dir.resolve("a.jar"), "some jar");
+        InstallIndex index = new InstallIndex(dir.resolve("files.index"), dir);
+        index.verified(info, index.stamp(info));
+        index.save();
+
+        InstallIndex stagedIndex = new InstallIndex(dir.resolve("files.index"), staged);
+        assertThat(stagedIndex.verifiedSHA1("a.jar", dir.resolve("a.jar")), is(info.getSHA1Digest()));
+
+        Files.write(dir.resolve("a.jar"), "some jaR".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(dir.resolve("a.jar"), FileTime.fromMillis(0));
+        assertNull(stagedIndex.verifiedSHA1("a.jar", dir.resolve("a.jar")));
+    }
+
+    private FileInfo write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Digests digests = Digests.of(file);
+        return new FileInfo(file.getFileName().toString(), new MemoryUnit(Files.size(file)), "",
+                            digests.getMD5Digest(), digests.getSHA1Digest());
+    }
+}
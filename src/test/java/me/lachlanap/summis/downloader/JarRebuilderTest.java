@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.Encoding;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.UpdateInformation.Group;
+import me.lachlanap.summis.UpdateInformation.JarEntryInfo;
+import me.lachlanap.summis.UpdateInformation.JarEntryList;
+import me.lachlanap.summis.UpdateInformation.Patch;
+import me.lachlanap.summis.transport.Mirror;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class JarRebuilderTest {
+
+    private static final String MIRROR = "http://mirror.example/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rebuiltJarMatchesThePublishedOneAndOnlyChangedEntriesAreFetched() throws Exception {
+        Map<String, byte[]> oldContents = new LinkedHashMap<>();
+        oldContents.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+        oldContents.put("app/Main.class", randomBytes(1, 20000));
+        oldContents.put("app/Util.class", randomBytes(2, 5000));
+        oldContents.put("app/donn\u00e9es.txt", "stored as is".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, byte[]> newContents = new LinkedHashMap<>(oldContents);
+        newContents.put("app/Main.class", randomBytes(3, 21000));
+        newContents.put("app/Added.class", randomBytes(4, 3000));
+
+        Path root = folder.newFolder().toPath();
+        Path current = Files.createDirectory(root.resolve("current"));
+        Files.write(current.resolve("app.jar"), publish(oldContents));
+        byte[] published = publish(newContents);
+
+        final Map<String, byte[]> served = storedEntries(published);
+        final List<String> requested = new ArrayList<>();
+        MockHttpTransport transport = new MockHttpTransport() {
+
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                requested.add(url);
+                String sha1 = url.substring(url.lastIndexOf('/') + 1);
+                return new MockLowLevelHttpRequest(url).setResponse(
+                        new MockLowLevelHttpResponse().setContent(new ByteArrayInputStream(served.get(sha1))));
+            }
+        };
+
+        FileInfo info = new FileInfo("app.jar", new MemoryUnit(published.length), MIRROR + "app.jar",
+                                     digest("MD5", published), digest("SHA-1", published), Group.BOOT,
+                                     Collections.<Patch>emptyList(), Collections.<Encoding>emptyList(), null,
+                                     describe(published));
+        PartialDownload partial = new PartialDownload(root.resolve("app.jar"), info);
+        JarRebuilder rebuilder = new JarRebuilder(current, transport.createRequestFactory(),
+                                                  new BandwidthLimiter(new MemoryUnit(0)), new NullDownloadListener());
+
+        Digests digests = rebuilder.rebuild(info, partial, new Mirror(MIRROR, MIRROR));
+
+        assertArrayEquals(published, Files.readAllBytes(partial.getFile()));
+        assertThat(digests.matches(info), is(true));
+        assertThat(requested.size(), is(2));
+    }
+
+    @Test
+    public void damagedCentralDirectoryMeansDownloadingWhole() throws Exception {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("app/Main.class", randomBytes(1, 20000));
+        contents.put("app/Util.class", randomBytes(2, 5000));
+
+        Path root = folder.newFolder().toPath();
+        Path current = Files.createDirectory(root.resolve("current"));
+        byte[] installed = publish(contents);
+        // Claim more entries than the central directory holds
+        ByteBuffer.wrap(installed).order(ByteOrder.LITTLE_ENDIAN).putShort(installed.length - 22 + 10, (short) 40);
+        Files.write(current.resolve("app.jar"), installed);
+
+        contents.put("app/Main.class", randomBytes(3, 21000));
+        byte[] published = publish(contents);
+        final List<String> requested = new ArrayList<>();
+        MockHttpTransport transport = new MockHttpTransport() {
+
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                requested.add(url);
+                return super.buildRequest(method, url);
+            }
+        };
+
+        FileInfo info = new FileInfo("app.jar", new MemoryUnit(published.length), MIRROR + "app.jar",
+                                     digest("MD5", published), digest("SHA-1", published), Group.BOOT,
+                                     Collections.<Patch>emptyList(), Collections.<Encoding>emptyList(), null,
+                                     describe(published));
+        JarRebuilder rebuilder = new JarRebuilder(current, transport.createRequestFactory(),
+                                                  new BandwidthLimiter(new MemoryUnit(0)), new NullDownloadListener());
+
+        assertNull(rebuilder.rebuild(info, new PartialDownload(root.resolve("app.jar"), info), new Mirror(MIRROR, MIRROR)));
+        assertThat(requested.size(), is(0));
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        // Compressible, like class files, but different for each seed
+        Random random = new Random(seed);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        return bytes;
+    }
+
+    /**
+     * Writes a jar the way a publisher would, with everything about each entry set up front.
+     */
+    private static byte[] publish(Map<String, byte[]> contents) throws IOException {
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(jar)) {
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                byte[] bytes = content.getValue();
+                ZipEntry entry = new ZipEntry(content.getKey());
+                entry.setTime(1400000000000L);
+                entry.setSize(bytes.length);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setCrc(crc.getValue());
+
+                if (content.getKey().endsWith(".txt")) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setCompressedSize(bytes.length);
+                } else {
+                    entry.setMethod(ZipEntry.DEFLATED);
+                    entry.setCompressedSize(deflatedSize(bytes));
+                }
+
+                zos.putNextEntry(entry);
+                zos.write(bytes);
+                zos.closeEntry();
+            }
+        }
+        return jar.toByteArray();
+    }
+
+    private static long deflatedSize(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = new byte[bytes.length + 1024];
+        long size = 0;
+        while (!deflater.finished())
+            size += deflater.deflate(buffer);
+        deflater.end();
+        return size;
+    }
+
+    /**
+     * Lists a jar's entries from its local headers, as the manifest would.
+     */
+    private static JarEntryList describe(byte[] jar) throws Exception {
+        List<JarEntryInfo> entries = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+        int at = 0;
+        while (buffer.getInt(at) == 0x04034b50) {
+            int nameLength = buffer.getShort(at + 26) & 0xffff;
+            long compressedSize = buffer.getInt(at + 18) & 0xffffffffL;
+            int data = at + 30 + nameLength + (buffer.getShort(at + 28) & 0xffff);
+
+            entries.add(new JarEntryInfo(new String(jar, at + 30, nameLength, StandardCharsets.UTF_8),
+                                         buffer.getShort(at + 8) & 0xffff,
+                                         buffer.getInt(at + 10) & 0xffffffffL,
+                                         buffer.getInt(at + 14) & 0xffffffffL,
+                                         buffer.getInt(at + 22) & 0xffffffffL,
+                                         compressedSize,
+                                         digest("SHA-1", Arrays.copyOfRange(jar, data, data + (int) compressedSize))));
+            at = data + (int) compressedSize;
+        }
+        return new JarEntryList(MIRROR + "entries/{sha1}", entries);
+    }
+
+    private static Map<String, byte[]> storedEntries(byte[] jar) throws Exception {
+        Map<String, byte[]> stored = new HashMap<>();
+        ByteBuffer buffer = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+        int at = 0;
+        while (buffer.getInt(at) == 0x04034b50) {
+            int data = at + 30 + (buffer.getShort(at + 26) & 0xffff) + (buffer.getShort(at + 28) & 0xffff);
+            byte[] bytes = Arrays.copyOfRange(jar, data, data + buffer.getInt(at + 18));
+            stored.put(digest("SHA-1", bytes), bytes);
+            at = data + bytes.length;
+        }
+        return stored;
+    }
+
+    private static String digest(String algorithm, byte[] bytes) throws Exception {
+        return new String(Hex.encodeHex(MessageDigest.getInstance(algorithm).digest(bytes)));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import me.lachlanap.summis.MemoryUnit;
+
+/**
+ * Ignores everything, for tests that do not look at progress. Override the methods of interest
+ * to keep count of some of it.
+ *
+ * @author Lachlan Phillips
+ */
+public class NullDownloadListener implements DownloadListener {
+
+    @Override
+    public void startingDownload(int numberOfFiles, MemoryUnit totalSize) {
+    }
+
+    @Override
+    public void downloadedSome(MemoryUnit amount) {
+    }
+
+    @Override
+    public void receivedSome(MemoryUnit amount) {
+    }
+
+    @Override
+    public void completedADownload() {
+    }
+
+    @Override
+    public void startingVerify(int numberOfFiles) {
+    }
+
+    @Override
+    public void completedAVerify() {
+    }
+}
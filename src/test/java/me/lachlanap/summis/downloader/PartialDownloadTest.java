@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class PartialDownloadTest {
+
+    private static final String VALIDATOR = "\"abc123\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private FileInfo info;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.getRoot().toPath().resolve("a.jar");
+        info = new FileInfo("a.jar", new MemoryUnit(1000), "http://example/a.jar",
+                            "0123456789abcdef0123456789abcdef", "0123456789abcdef0123456789abcdef01234567");
+    }
+
+    @Test
+    public void picksUpWhereAnEarlierRunStopped() throws Exception {
+        write(new PartialDownload(file, info), VALIDATOR, 400);
+
+        PartialDownload resumed = new PartialDownload(file, info);
+        assertThat(resumed.resumableFrom(), is(400L));
+        assertThat(resumed.getValidator(), is(VALIDATOR));
+    }
+
+    @Test
+    public void appendsToWhatIsThere() throws Exception {
+        write(new PartialDownload(file, info), VALIDATOR, 400);
+
+        PartialDownload resumed = new PartialDownload(file, info);
+        try (OutputStream os = resumed.start(resumed.getValidator(), true)) {
+            os.write(new byte[600]);
+        }
+
+        assertThat(Files.size(file), is(1000L));
+    }
+
+    @Test
+    public void startsOverWithoutASidecar() throws Exception {
+        Files.write(file, new byte[400]);
+
+        assertThat(new PartialDownload(file, info).resumableFrom(), is(0L));
+        assertThat(Files.exists(file), is(false));
+    }
+
+    @Test
+    public void startsOverWhenTheFileIsNowSomethingElse() throws Exception {
+        write(new PartialDownload(file, info), VALIDATOR, 400);
+        FileInfo changed = new FileInfo("a.jar", new MemoryUnit(1000), "http://example/a.jar",
+                                        "fedcba9876543210fedcba9876543210", "fedcba9876543210fedcba9876543210fedcba98");
+
+        assertThat(new PartialDownload(file, changed).resumableFrom(), is(0L));
+        assertThat(Files.exists(file), is(false));
+        assertThat(Files.exists(sidecar()), is(false));
+    }
+
+    @Test
+    public void startsOverWhenThereIsTooMuch() throws Exception {
+        write(new PartialDownload(file, info), VALIDATOR, 1001);
+
+        assertThat(new PartialDownload(file, info).resumableFrom(), is(0L));
+    }
+
+    @Test
+    public void segmentedDownloadsAreNotAppendedTo() throws Exception {
+        new PartialDownload(file, info).resumableSegments(4);
+
+        assertThat(new PartialDownload(file, info).resumableFrom(), is(0L));
+    }
+
+    @Test
+    public void sidecarGoesOnceCompleted() throws Exception {
+        PartialDownload partial = new PartialDownload(file, info);
+        write(partial, null, 1000);
+        assertThat(Files.exists(sidecar()), is(true));
+
+        partial.completed();
+
+        assertThat(Files.exists(sidecar()), is(false));
+        assertThat(Files.exists(file), is(true));
+    }
+
+    private Path sidecar() {
+        return file.resolveSibling("a.jar.partial");
+    }
+
+    private static void write(PartialDownload partial, String validator, int length) throws Exception {
+        try (OutputStream os = partial.start(validator, false)) {
+            os.write(new byte[length]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import me.lachlanap.summis.server.LocalUpdateServer;
+import me.lachlanap.summis.transport.HttpTransports;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class RangeRequestsTest {
+
+    private LocalUpdateServer server;
+    private HttpTransport transport;
+    private GenericUrl url;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalUpdateServer();
+        transport = HttpTransports.pooled(2, 2);
+        url = new GenericUrl(server.getAddress() + "files/a.bin");
+        content = new byte[10000];
+        new Random(1).nextBytes(content);
+        server.put("files/a.bin", content);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void rangeWithTheSameValidatorResumes() throws Exception {
+        HttpResponse response = RangeRequests.get(transport.createRequestFactory(), url, 4000, -1, etag());
+
+        assertThat(RangeRequests.isRangeFrom(response, 4000), is(true));
+        assertArrayEquals(Arrays.copyOfRange(content, 4000, content.length), body(response));
+    }
+
+    @Test
+    public void changedValidatorGetsTheWholeFile() throws Exception {
+        HttpResponse response = RangeRequests.get(transport.createRequestFactory(), url, 4000, -1, "\"stale\"");
+
+        assertThat(RangeRequests.isRangeFrom(response, 4000), is(false));
+        assertThat(RangeRequests.validatorOf(response), is(etag()));
+        assertArrayEquals(content, body(response));
+    }
+
+    @Test
+    public void wholeFileInReplyToARangeIsNotARange() {
+        assertThat(RangeRequests.isRangeFrom(200, null, 4000), is(false));
+        assertThat(RangeRequests.isRangeFrom(200, "bytes 4000-9999/10000", 4000), is(false));
+    }
+
+    @Test
+    public void rangeStartingElsewhereIsNotUsed() {
+        assertThat(RangeRequests.isRangeFrom(206, "bytes 0-9999/10000", 4000), is(false));
+        assertThat(RangeRequests.isRangeFrom(206, "bytes */10000", 4000), is(false));
+        assertThat(RangeRequests.isRangeFrom(206, "items 4000-9999/10000", 4000), is(false));
+        assertThat(RangeRequests.isRangeFrom(206, null, 4000), is(false));
+        assertThat(RangeRequests.isRangeFrom(206, "bytes 4000-9999/10000", 4000), is(true));
+    }
+
+    @Test
+    public void rangePastTheEndIsNotSatisfiable() throws Exception {
+        try {
+            RangeRequests.get(transport.createRequestFactory(), url, content.length, -1, etag());
+            fail("expected a 416");
+        } catch (HttpResponseException hre) {
+            assertThat(hre.getStatusCode(), is(RangeRequests.HTTP_RANGE_NOT_SATISFIABLE));
+        }
+    }
+
+    @Test
+    public void onlyStrongValidatorsAreUsed() {
+        assertThat(RangeRequests.validatorOf("\"abc\"", "Tue, 15 Nov 1994 12:45:26 GMT"), is("\"abc\""));
+        assertThat(RangeRequests.validatorOf("W/\"abc\"", "Tue, 15 Nov 1994 12:45:26 GMT"), is("Tue, 15 Nov 1994 12:45:26 GMT"));
+        assertNull(RangeRequests.validatorOf(null, null));
+    }
+
+    private String etag() {
+        return "\"" + DigestUtils.shaHex(content) + "\"";
+    }
+
+    private static byte[] body(HttpResponse response) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            RangeRequests.download(response, os);
+        } finally {
+            response.disconnect();
+        }
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.io.IOException;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void delaysStayWithinGrowingBound() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+
+        for (int attempts = 1; attempts < 10; attempts++) {
+            long bound = Math.min(100L << (attempts - 1), 1000);
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.delayMillis(attempts);
+                assertTrue(delay >= 0 && delay < bound);
+            }
+        }
+    }
+
+    @Test
+    public void stopsAfterLastAttempt() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+
+        assertThat(policy.shouldRetry(2, new IOException()), is(true));
+        assertThat(policy.shouldRetry(3, new IOException()), is(false));
+    }
+
+    @Test
+    public void doesNotRetryProgrammingErrors() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+
+        assertThat(policy.shouldRetry(1, new IllegalStateException()), is(false));
+    }
+}
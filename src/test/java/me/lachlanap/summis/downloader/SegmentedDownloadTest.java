@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpTransport;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation.FileInfo;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.server.LocalUpdateServer;
+import me.lachlanap.summis.transport.HttpTransports;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class SegmentedDownloadTest {
+
+    private static final String PATH = "files/demo/1.0.0/big.jar";
+    private static final int SIZE = 256 * 1024;
+    private static final int SEGMENTS = 4;
+    private static final int CUT_OFF = 20 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalUpdateServer server;
+    private HttpTransport transport;
+    private ExecutorService executor;
+    private SegmentPolicy policy;
+    private byte[] content;
+    private FileInfo info;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalUpdateServer();
+        transport = HttpTransports.pooled(SEGMENTS, SEGMENTS);
+        executor = Executors.newCachedThreadPool();
+        policy = new SegmentPolicy(new MemoryUnit(1024), SEGMENTS, executor);
+
+        content = new byte[SIZE];
+        new Random(1).nextBytes(content);
+        server.put(PATH, content);
+        info = new FileInfo("big.jar", new MemoryUnit(SIZE), server.getAddress() + PATH,
+                            DigestUtils.md5Hex(content), DigestUtils.shaHex(content));
+        file = folder.getRoot().toPath().resolve("big.jar");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        transport.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void fetchesEverySegmentAsItsOwnRange() throws Exception {
+        TallyListener listener = new TallyListener();
+
+        download(listener, new AtomicLong());
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertThat(server.getRangeRequests(), is(SEGMENTS));
+        assertThat(listener.downloaded.get(), is((long) SIZE));
+    }
+
+    @Test
+    public void retryCarriesOnEachSegmentWithoutCountingItTwice() throws Exception {
+        TallyListener listener = new TallyListener();
+        AtomicLong reported = new AtomicLong();
+        cutEverySegmentShort(listener, reported);
+
+        long served = server.getBytesServed();
+        download(listener, reported);
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertThat(server.getBytesServed() - served, is((long) SIZE - SEGMENTS * CUT_OFF));
+        assertThat(listener.downloaded.get(), is((long) SIZE));
+    }
+
+    @Test
+    public void segmentsLeftByAnEarlierRunCountOnceResumed() throws Exception {
+        cutEverySegmentShort(new TallyListener(), new AtomicLong());
+        TallyListener listener = new TallyListener();
+
+        // A new run knows nothing of what the last one reported
+        download(listener, new AtomicLong());
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertThat(listener.downloaded.get(), is((long) SIZE));
+    }
+
+    @Test
+    public void serverIgnoringRangesGetsTheWholeFileInOne() throws Exception {
+        server.setIgnoreRanges(true);
+        TallyListener listener = new TallyListener();
+
+        download(listener, new AtomicLong());
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertThat(server.getRequests(), is(1));
+        assertThat(server.getRangeRequests(), is(0));
+        assertThat(listener.downloaded.get(), is((long) SIZE));
+        // Left as a plain partial file, not a segmented one
+        assertThat(new PartialDownload(file, info).resumableFrom(), is((long) SIZE));
+    }
+
+    /**
+     * Makes a first attempt in which every segment stops {@value #CUT_OFF} bytes in, leaving its
+     * progress in the sidecar.
+     */
+    private void cutEverySegmentShort(DownloadListener listener, AtomicLong reported) throws InterruptedException {
+        server.disconnectAfter(PATH, CUT_OFF, SEGMENTS);
+        try {
+            download(listener, reported);
+            fail("Every segment was cut short");
+        } catch (IOException expected) {
+        }
+    }
+
+    private void download(DownloadListener listener, AtomicLong reported) throws IOException, InterruptedException {
+        new SegmentedDownload(info, new GenericUrl(info.getUrl()), transport.createRequestFactory(),
+                              new PartialDownload(file, info), new TransferMeter(listener, new Metrics(), reported),
+                              policy, new BandwidthLimiter(new MemoryUnit(0))).run();
+    }
+
+    private static class TallyListener extends NullDownloadListener {
+
+        final AtomicLong downloaded = new AtomicLong();
+
+        @Override
+        public void downloadedSome(MemoryUnit amount) {
+            downloaded.addAndGet(amount.inBytes());
+        }
+    }
+}
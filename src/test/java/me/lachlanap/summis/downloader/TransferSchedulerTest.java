@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.downloader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class TransferSchedulerTest {
+
+    @Test
+    public void runsLargestFirst() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(1, 1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+
+        Future<Void> first = scheduler.submitNetwork(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                blocker.await();
+                return null;
+            }
+        }, 0);
+        while (scheduler.getNetworkInFlight() == 0)
+            Thread.sleep(1);
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (long size : new long[]{10, 300, 20, 300, 5000})
+            futures.add(scheduler.submitNetwork(recordSize(size, order), size));
+
+        assertThat(scheduler.getNetworkQueueDepth(), is(5));
+        blocker.countDown();
+
+        first.get();
+        for (Future<Void> future : futures)
+            future.get();
+
+        assertThat(order, is(Arrays.asList(5000L, 300L, 300L, 20L, 10L)));
+    }
+
+    @Test
+    public void idlePoolRunsLargestFirst() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(1, 1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (final long size : new long[]{10, 20, 300, 5000})
+            futures.add(scheduler.submitNetwork(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    order.add(size);
+                    gate.await();
+                    return null;
+                }
+            }, size));
+        while (scheduler.getNetworkInFlight() == 0)
+            Thread.sleep(1);
+
+        // The idle thread takes whichever came first; the rest wait in the queue for it
+        assertThat(scheduler.getNetworkQueueDepth(), is(3));
+        gate.countDown();
+        for (Future<Void> future : futures)
+            future.get();
+
+        List<Long> queued = new ArrayList<>(order.subList(1, order.size()));
+        List<Long> largestFirst = new ArrayList<>(queued);
+        Collections.sort(largestFirst, Collections.reverseOrder());
+        assertThat(queued, is(largestFirst));
+    }
+
+    private Callable<Void> recordSize(final long size, final List<Long> order) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                order.add(size);
+                return null;
+            }
+        };
+    }
+}
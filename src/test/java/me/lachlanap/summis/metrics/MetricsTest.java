@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class MetricsTest {
+
+    @Test
+    public void percentilesAreWithinAnEighthOfTheTrueValue() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++)
+            histogram.record(i);
+
+        assertThat(histogram.getCount(), is(10000L));
+        assertThat(histogram.getMin(), is(1L));
+        assertThat(histogram.getMax(), is(10000L));
+        assertWithinAnEighth(histogram.getPercentile(0.5), 5000);
+        assertWithinAnEighth(histogram.getPercentile(0.99), 9900);
+    }
+
+    @Test
+    public void registeredMetricsCanBeReadOverJmx() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("download.retries").add(3);
+        metrics.histogram("manifest.fetch-ms").record(120);
+        metrics.register();
+        try {
+            ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+            Map<?, ?> counters = (Map<?, ?>) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Counters");
+            assertNotNull(counters);
+            String json = (String) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Json");
+            assertTrue(json.contains("\"download.retries\": 3"));
+            assertTrue(json.contains("\"manifest.fetch-ms\""));
+        } finally {
+            metrics.unregister();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(Metrics.OBJECT_NAME)), is(false));
+    }
+
+    private static void assertWithinAnEighth(long actual, long expected) {
+        assertTrue(actual + " is not near " + expected, Math.abs(actual - expected) <= expected / 8);
+    }
+}
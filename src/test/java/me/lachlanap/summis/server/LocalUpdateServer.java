@@ -0,0 +1,411 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.server;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import me.lachlanap.summis.update.UpdateInformationGrabber;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A stand-in for the update server on a local port, serving manifests in the layout the client
+ * expects and the files they list. Requests can be slowed down, cut short or refused, to see how
+ * the client copes.
+ *
+ * @author Lachlan Phillips
+ */
+public class LocalUpdateServer implements Closeable {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String address;
+
+    private final ConcurrentMap<String, byte[]> resources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> redirects = new ConcurrentHashMap<>();
+    private final Map<String, List<Release>> releases = new HashMap<>();
+    private final List<Fault> faults = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, CountDownLatch> holds = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile boolean chunked;
+    private volatile boolean ignoreRanges;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final Set<InetSocketAddress> connections = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    public LocalUpdateServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                thread.setName("Local Update Server");
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        server.start();
+
+        address = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return the server's address, ending in a slash, as configured for {@code server.address}
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Serves {@code content} at {@code path}, relative to {@link #getAddress()}.
+     */
+    public void put(String path, byte[] content) {
+        resources.put(path, content);
+    }
+
+    /**
+     * Answers requests for {@code path} with a 302 to {@code location}, which may be absolute or
+     * relative to the server.
+     */
+    public void redirect(String path, String location) {
+        redirects.put(path, location);
+    }
+
+    /**
+     * Publishes a version of {@code project} made up of {@code files}, by name. The manifest lists
+     * it alongside the versions published before, with those files that differ from the last
+     * version as its diff.
+     */
+    public void publish(String project, String version, Map<String, byte[]> files) {
+        publish(project, version, files, Collections.<String>emptySet());
+    }
+
+    /**
+     * Publishes as {@link #publish(String, String, Map)} does, listing the files named in
+     * {@code deferred} in the "deferred" group.
+     */
+    public synchronized void publish(String project, String version, Map<String, byte[]> files, Set<String> deferred) {
+        List<Release> projectReleases = releases.get(project);
+        if (projectReleases == null) {
+            projectReleases = new ArrayList<>();
+            releases.put(project, projectReleases);
+        }
+        Release previous = projectReleases.isEmpty() ? null : projectReleases.get(projectReleases.size() - 1);
+
+        Release release = new Release(version);
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String path = "files/" + project + "/" + version + "/" + file.getKey();
+            put(path, file.getValue());
+
+            JsonObject info = new JsonObject();
+            info.addProperty("name", file.getKey());
+            info.addProperty("size", file.getValue().length);
+            info.addProperty("url", address + path);
+            info.addProperty("md5", DigestUtils.md5Hex(file.getValue()));
+            info.addProperty("sha1", DigestUtils.shaHex(file.getValue()));
+            if (deferred.contains(file.getKey()))
+                info.addProperty("group", "deferred");
+
+            release.full.add(info);
+            if (previous == null || !Arrays.equals(file.getValue(), previous.contents.get(file.getKey())))
+                release.diff.add(info);
+            release.contents.put(file.getKey(), file.getValue());
+        }
+        projectReleases.add(release);
+
+        JsonArray versions = new JsonArray();
+        for (Release published : projectReleases) {
+            JsonObject versionJson = new JsonObject();
+            versionJson.addProperty("number", published.version);
+            versionJson.addProperty("description", "");
+            versionJson.add("diff", published.diff);
+            versionJson.add("full", published.full);
+            versions.add(versionJson);
+        }
+        JsonObject manifest = new JsonObject();
+        manifest.addProperty("version", 1);
+        manifest.add("versions", versions);
+
+        put(UpdateInformationGrabber.manifestPath(project),
+            new GsonBuilder().setPrettyPrinting().create().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Holds every response back this long before anything is sent.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Limits how fast each response body is sent; 0 means as fast as possible.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Sends bodies with chunked transfer encoding rather than a Content-Length.
+     */
+    public void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    /**
+     * Answers every request with the whole file, as a server without range support does.
+     */
+    public void setIgnoreRanges(boolean ignoreRanges) {
+        this.ignoreRanges = ignoreRanges;
+    }
+
+    /**
+     * Answers the next {@code times} requests for paths starting with {@code pathPrefix} with
+     * {@code status} and no body, such as 503.
+     */
+    public void respondWith(String pathPrefix, int status, int times) {
+        faults.add(new Fault(pathPrefix, status, -1, times));
+    }
+
+    /**
+     * Drops the connection after {@code bytes} of the body, for the next {@code times} requests
+     * for paths starting with {@code pathPrefix}.
+     */
+    public void disconnectAfter(String pathPrefix, long bytes, int times) {
+        faults.add(new Fault(pathPrefix, 0, bytes, times));
+    }
+
+    /**
+     * Holds back requests for paths starting with {@code pathPrefix} until {@code release} counts
+     * down.
+     */
+    public void holdUntil(String pathPrefix, CountDownLatch release) {
+        holds.put(pathPrefix, release);
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return how many requests were answered with part of a file
+     */
+    public int getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * @return how many different connections requests have come in on
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private Fault takeFault(String path) {
+        for (Fault fault : faults)
+            if (path.startsWith(fault.pathPrefix) && fault.remaining.getAndDecrement() > 0)
+                return fault;
+        return null;
+    }
+
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                connections.add(exchange.getRemoteAddress());
+                serve(exchange);
+            } catch (IOException ioe) {
+                // The client went away, or the connection was dropped on purpose
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException, InterruptedException {
+            String path = exchange.getRequestURI().getPath().substring(1);
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            if (latencyMillis > 0)
+                Thread.sleep(latencyMillis);
+            for (Map.Entry<String, CountDownLatch> hold : holds.entrySet())
+                if (path.startsWith(hold.getKey()))
+                    hold.getValue().await();
+
+            Fault fault = takeFault(path);
+            if (fault != null && fault.status > 0) {
+                exchange.sendResponseHeaders(fault.status, -1);
+                return;
+            }
+
+            String location = redirects.get(path);
+            if (location != null) {
+                exchange.getResponseHeaders().set("Location", location);
+                exchange.sendResponseHeaders(302, -1);
+                return;
+            }
+
+            byte[] content = resources.get(path);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String etag = "\"" + DigestUtils.shaHex(content) + "\"";
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", path.endsWith(".json") ? "application/json" : "application/octet-stream");
+            if (!ignoreRanges)
+                headers.set("Accept-Ranges", "bytes");
+            headers.set("ETag", etag);
+
+            int start = 0;
+            int end = content.length;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            Matcher matcher = range == null || ignoreRanges ? null : RANGE.matcher(range.trim());
+            // A range against a copy that has since changed gets the whole new copy instead
+            if (matcher != null && matcher.matches() && (ifRange == null || ifRange.equals(etag))) {
+                start = (int) Math.min(Long.parseLong(matcher.group(1)), Integer.MAX_VALUE);
+                if (!matcher.group(2).isEmpty())
+                    end = (int) Math.min(Long.parseLong(matcher.group(2)) + 1, content.length);
+                if (start >= content.length || start >= end) {
+                    headers.set("Content-Range", "bytes */" + content.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                headers.set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + content.length);
+                status = 206;
+                rangeRequests.incrementAndGet();
+            }
+
+            if (head) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, chunked ? 0 : end - start);
+
+            long cutOff = fault != null ? fault.afterBytes : Long.MAX_VALUE;
+            long began = System.nanoTime();
+            long sent = 0;
+            OutputStream os = exchange.getResponseBody();
+            for (int at = start; at < end; at += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, end - at);
+                if (sent + length > cutOff) {
+                    os.write(content, at, (int) (cutOff - sent));
+                    bytesServed.addAndGet(cutOff - sent);
+                    os.flush();
+                    // Closing short of the promised length drops the connection
+                    return;
+                }
+
+                os.write(content, at, length);
+                sent += length;
+                bytesServed.addAndGet(length);
+                throttle(sent, began);
+            }
+        }
+
+        private void throttle(long sent, long began) throws InterruptedException {
+            long limit = bytesPerSecond;
+            if (limit <= 0)
+                return;
+
+            long dueNanos = sent * 1000000000L / limit;
+            long aheadMillis = (dueNanos - (System.nanoTime() - began)) / 1000000;
+            if (aheadMillis > 0)
+                Thread.sleep(aheadMillis);
+        }
+    }
+
+    private static class Release {
+
+        final String version;
+        final JsonArray diff = new JsonArray();
+        final JsonArray full = new JsonArray();
+        final Map<String, byte[]> contents = new HashMap<>();
+
+        Release(String version) {
+            this.version = version;
+        }
+    }
+
+    private static class Fault {
+
+        final String pathPrefix;
+        final int status;
+        final long afterBytes;
+        final AtomicInteger remaining;
+
+        Fault(String pathPrefix, int status, long afterBytes, int times) {
+            this.pathPrefix = pathPrefix;
+            this.status = status;
+            this.afterBytes = afterBytes;
+            this.remaining = new AtomicInteger(times);
+        }
+    }
+}
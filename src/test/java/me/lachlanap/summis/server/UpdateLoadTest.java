@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.server;
+
+import com.google.api.client.http.HttpTransport;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import me.lachlanap.config.Configuration;
+import me.lachlanap.summis.Generations;
+import me.lachlanap.summis.MemoryUnit;
+import me.lachlanap.summis.UpdateInformation;
+import me.lachlanap.summis.Version;
+import me.lachlanap.summis.downloader.BandwidthLimiter;
+import me.lachlanap.summis.downloader.ContentStore;
+import me.lachlanap.summis.downloader.Downloader;
+import me.lachlanap.summis.downloader.FileOutcome;
+import me.lachlanap.summis.downloader.NullDownloadListener;
+import me.lachlanap.summis.metrics.Metrics;
+import me.lachlanap.summis.transport.MirrorSet;
+import me.lachlanap.summis.transport.HttpTransports;
+import me.lachlanap.summis.update.UpdateInformationGrabber;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Whole updates against a {@link LocalUpdateServer}, from fetching the manifest to the new
+ * generation being current. The throughput of the large update is printed; to have a drop in it
+ * fail the build, set {@code summis.load.baseline} to an earlier run's MB/s, and optionally
+ * {@code summis.load.tolerance} to the fraction it may fall by (0.25 unless set).
+ *
+ * @author Lachlan Phillips
+ */
+public class UpdateLoadTest {
+
+    private static final String PROJECT = "load-test";
+    // Fewer than the network threads, so that they have to share
+    private static final int CONNECTIONS_PER_HOST = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hundredsOfFilesInstallWithOneRequestEach() throws Exception {
+        Map<String, byte[]> files = generateFiles(400, 4 * 1024, 128 * 1024, 1);
+        long totalBytes = 0;
+        for (byte[] content : files.values())
+            totalBytes += content.length;
+
+        try (LocalUpdateServer server = new LocalUpdateServer()) {
+            server.publish(PROJECT, "1.0.0", files);
+            Path installRoot = folder.newFolder().toPath();
+
+            HttpTransport transport = HttpTransports.pooled(CONNECTIONS_PER_HOST, CONNECTIONS_PER_HOST);
+            long started = System.nanoTime();
+            List<FileOutcome> outcomes;
+            try {
+                outcomes = update(server, installRoot, Version.ZERO, transport);
+            } finally {
+                transport.shutdown();
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+
+            assertInstalled(outcomes, files, installRoot);
+            // One for the manifest and one for each file, with nothing fetched twice
+            assertThat(server.getRequests(), is(files.size() + 1));
+            // ...and all of them over a few kept-alive connections
+            assertTrue(server.getConnections() + " connections", server.getConnections() <= CONNECTIONS_PER_HOST);
+            assertTrue(HttpTransports.getPoolHits(transport) > 0);
+            assertThat(HttpTransports.getPoolMisses(transport), is((long) server.getConnections()));
+
+            double megabytesPerSecond = totalBytes / 1024.0 / 1024.0 / seconds;
+            System.out.printf("Installed %d files, %.1f MB in %.2fs: %.1f MB/s%n",
+                              files.size(), totalBytes / 1024.0 / 1024.0, seconds, megabytesPerSecond);
+            checkAgainstBaseline(megabytesPerSecond);
+        }
+    }
+
+    @Test
+    public void updateCompletesThroughRefusalsDropsAndLatency() throws Exception {
+        Map<String, byte[]> files = generateFiles(100, 32 * 1024, 96 * 1024, 2);
+
+        try (LocalUpdateServer server = new LocalUpdateServer()) {
+            server.publish(PROJECT, "1.0.0", files);
+            server.setLatencyMillis(5);
+            server.respondWith("files/", 503, 10);
+            server.disconnectAfter("files/", 20 * 1024, 10);
+            Path installRoot = folder.newFolder().toPath();
+
+            List<FileOutcome> outcomes = update(server, installRoot, Version.ZERO);
+
+            assertInstalled(outcomes, files, installRoot);
+            // Files cut off part way through carry on from where they stopped
+            assertTrue(server.getRangeRequests() > 0);
+        }
+    }
+
+    @Test
+    public void onlyChangedFilesAreFetchedForAnUpdate() throws Exception {
+        Map<String, byte[]> first = generateFiles(200, 1024, 16 * 1024, 3);
+        Map<String, byte[]> second = new LinkedHashMap<>(first);
+        Map<String, byte[]> changed = generateFiles(20, 1024, 16 * 1024, 4);
+        second.putAll(changed);
+
+        try (LocalUpdateServer server = new LocalUpdateServer()) {
+            server.publish(PROJECT, "1.0.0", first);
+            Path installRoot = folder.newFolder().toPath();
+            assertInstalled(update(server, installRoot, Version.ZERO), first, installRoot);
+
+            server.publish(PROJECT, "2.0.0", second);
+            int before = server.getRequests();
+            List<FileOutcome> outcomes = update(server, installRoot, Version.parse("1.0.0"));
+
+            assertThat(outcomes.size(), is(changed.size()));
+            assertInstalled(outcomes, second, installRoot);
+            assertThat(server.getRequests() - before, is(changed.size() + 1));
+        }
+    }
+
+    private static List<FileOutcome> update(LocalUpdateServer server, Path installRoot, Version current) throws IOException, InterruptedException {
+        HttpTransport transport = HttpTransports.pooled(CONNECTIONS_PER_HOST, CONNECTIONS_PER_HOST);
+        try {
+            return update(server, installRoot, current, transport);
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    private static List<FileOutcome> update(LocalUpdateServer server, Path installRoot, Version current,
+                                            HttpTransport transport) throws InterruptedException {
+        Configuration config = Configuration.builder().loadBase("core.properties").build();
+        Metrics metrics = new Metrics();
+        UpdateInformationGrabber grabber = new UpdateInformationGrabber(Collections.singletonList(server.getAddress()),
+                                                                        PROJECT, transport, metrics);
+        grabber.begin();
+        UpdateInformation update = grabber.get(current);
+
+        // A size limit of 0 turns the content store off, so every file really comes from the server
+        ContentStore contentStore = new ContentStore(installRoot.resolve("cache"), new MemoryUnit(0));
+        Downloader downloader = new Downloader(config, installRoot, update, transport,
+                                               new MirrorSet(server.getAddress(), Collections.<String>emptyList()),
+                                               contentStore, new BandwidthLimiter(MemoryUnit.ZERO),
+                                               new NullDownloadListener(), metrics,
+                                               current.equals(Version.ZERO));
+        return downloader.go();
+    }
+
+    private static Map<String, byte[]> generateFiles(int count, int minSize, int maxSize, long seed) {
+        Random random = new Random(seed);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] content = new byte[minSize + random.nextInt(maxSize - minSize + 1)];
+            random.nextBytes(content);
+            files.put("file" + i + ".jar", content);
+        }
+        return files;
+    }
+
+    private static void assertInstalled(List<FileOutcome> outcomes, Map<String, byte[]> files, Path installRoot) throws IOException {
+        for (FileOutcome outcome : outcomes)
+            assertTrue(outcome.getInfo().getName() + " did not install", outcome.isInstalled());
+
+        Path current = new Generations(installRoot).getCurrent();
+        for (Map.Entry<String, byte[]> file : files.entrySet())
+            assertArrayEquals(file.getValue(), Files.readAllBytes(current.resolve(file.getKey())));
+    }
+
+    private static void checkAgainstBaseline(double megabytesPerSecond) {
+        String baseline = System.getProperty("summis.load.baseline");
+        if (baseline == null)
+            return;
+
+        double tolerance = Double.parseDouble(System.getProperty("summis.load.tolerance", "0.25"));
+        double floor = Double.parseDouble(baseline) * (1 - tolerance);
+        assertTrue(String.format("Throughput fell to %.1f MB/s, below %.1f MB/s", megabytesPerSecond, floor),
+                   megabytesPerSecond >= floor);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.transport;
+
+import com.google.api.client.http.HttpTransport;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import me.lachlanap.summis.server.LocalUpdateServer;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class MirrorSetTest {
+
+    @Test
+    public void urlsOnThePrimaryAreMovedToTheMirror() {
+        Mirror mirror = new Mirror("http://mirror.example/", "http://primary.example/");
+
+        assertThat(mirror.resolve("http://primary.example/files/a.jar"), is("http://mirror.example/files/a.jar"));
+        assertThat(mirror.resolve("http://elsewhere.example/a.jar"), is("http://elsewhere.example/a.jar"));
+    }
+
+    @Test
+    public void quickerMirrorsComeFirstAndFailedOnesLast() {
+        MirrorSet mirrors = new MirrorSet("http://a/", Arrays.asList("http://b/", "http://c/"));
+        List<Mirror> configured = mirrors.getMirrors();
+        Mirror a = configured.get(0), b = configured.get(1), c = configured.get(2);
+
+        assertThat(mirrors.rank(1000), is(Arrays.asList(a, b, c)));
+
+        a.responded(200);
+        b.responded(20);
+        c.responded(50);
+        assertThat(mirrors.rank(1000), is(Arrays.asList(b, c, a)));
+
+        b.failed();
+        assertThat(mirrors.rank(1000), is(Arrays.asList(c, a, b)));
+        assertThat(mirrors.alternativeTo(c, 1000), is(a));
+    }
+
+    @Test
+    public void probingOnlyAsksForHeaders() throws Exception {
+        try (LocalUpdateServer server = new LocalUpdateServer()) {
+            server.put("manifest.json", new byte[1024 * 1024]);
+            MirrorSet mirrors = new MirrorSet(server.getAddress(), Collections.<String>emptyList());
+            Mirror mirror = mirrors.getMirrors().get(0);
+            HttpTransport transport = HttpTransports.pooled(1, 1);
+            try {
+                mirrors.probe(transport, "manifest.json");
+
+                long giveUp = System.currentTimeMillis() + 5000;
+                while (Double.isInfinite(mirror.estimateMillis(0)) && System.currentTimeMillis() < giveUp)
+                    Thread.sleep(5);
+            } finally {
+                transport.shutdown();
+            }
+
+            assertThat(Double.isInfinite(mirror.estimateMillis(0)), is(false));
+            assertThat(server.getRequests(), is(1));
+            assertThat(server.getBytesServed(), is(0L));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Lachlan Phillips.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.lachlanap.summis.update;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import java.util.Collections;
+import me.lachlanap.summis.UpdateInformation;
+import me.lachlanap.summis.Version;
+import me.lachlanap.summis.metrics.Metrics;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lachlan Phillips
+ */
+public class UpdateInformationGrabberTest {
+
+    private static final int FILES = 100000;
+
+    @Test
+    public void diffSetTakesNewestChangeStillInTheLatestVersion() {
+        UpdateInformationGrabber grabber = new UpdateInformationGrabber(Collections.<String>emptyList(), "test", new NetHttpTransport(), new Metrics());
+        grabber.process("{\"version\": 1, \"versions\": ["
+                        + version("1.0.0", new String[]{"a:1", "b:1", "c:1"}, new String[]{"a:1", "b:1", "c:1"}) + ","
+                        + version("1.1.0", new String[]{"a:2", "b:2"}, new String[]{"a:2", "b:2", "c:1"}) + ","
+                        + version("1.2.0", new String[]{"a:3"}, new String[]{"a:3", "b:2", "c:1"})
+                        + "]}");
+
+        UpdateInformation info = grabber.updateFrom(Version.parse("1.0.0"));
+
+        assertThat(info.getDiffFileset().getFileCount(), is(2));
+        assertThat(info.getDiffFileset().getByName("a").getSHA1Digest(), is(sha1("3")));
+        assertThat(info.getDiffFileset().getByName("b").getSHA1Digest(), is(sha1("2")));
+    }
+
+    @Test(timeout = 20000)
+    public void diffSetScalesToLargeManifests() {
+        String[] full = new String[FILES];
+        String[] diff = new String[FILES / 2];
+        for (int i = 0; i < FILES; i++)
+            full[i] = "f" + i + ":" + (i % 2 == 0 ? "2" : "1");
+        for (int i = 0; i < FILES / 2; i++)
+            diff[i] = "f" + (i * 2) + ":2";
+
+        UpdateInformationGrabber grabber = new UpdateInformationGrabber(Collections.<String>emptyList(), "test", new NetHttpTransport(), new Metrics());
+        grabber.process("{\"version\": 1, \"versions\": ["
+                        + version("1.0.0", new String[0], new String[0]) + ","
+                        + version("2.0.0", diff, full)
+                        + "]}");
+
+        UpdateInformation info = grabber.updateFrom(Version.parse("1.0.0"));
+
+        assertThat(info.getDiffFileset().getFileCount(), is(FILES / 2));
+    }
+
+    private static String version(String number, String[] diff, String[] full) {
+        return "{\"number\": \"" + number + "\", \"description\": \"\", "
+               + "\"diff\": " + files(diff) + ", \"full\": " + files(full) + "}";
+    }
+
+    private static String files(String[] files) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < files.length; i++) {
+            String[] nameAndContent = files[i].split(":");
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"name\": \"").append(nameAndContent[0])
+                    .append("\", \"size\": 1, \"url\": \"http://localhost/").append(nameAndContent[0])
+                    .append("\", \"md5\": \"").append(nameAndContent[1])
+                    .append("\", \"sha1\": \"").append(sha1(nameAndContent[1])).append("\"}");
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String sha1(String content) {
+        return "sha1-" + content;
+    }
+}